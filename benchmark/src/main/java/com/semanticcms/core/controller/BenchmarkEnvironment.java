@@ -0,0 +1,390 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.net.Path;
+import com.aoindustries.servlet.filter.CountConcurrencyListener;
+import com.aoindustries.validation.ValidationException;
+import com.semanticcms.core.model.BookRef;
+import com.semanticcms.core.model.ChildRef;
+import com.semanticcms.core.model.Page;
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.model.ParentRef;
+import com.semanticcms.core.pages.CaptureLevel;
+import com.semanticcms.core.renderer.Renderer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequestAttributeEvent;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+import org.xml.sax.SAXException;
+
+/**
+ * An application without a servlet container: a {@link SemanticCMS} with
+ * {@link InMemoryBook in-memory books}, the {@link ConcurrencyCoordinator} and the
+ * {@link CacheFilter}, along with the minimal servlet API needed to drive them.
+ * <p>
+ * The root book is published at <code>/</code>, with any additional books
+ * published at <code>/books/book-<i>n</i></code>.
+ * </p>
+ */
+class BenchmarkEnvironment implements Closeable {
+
+	/**
+	 * Each environment has a distinct context path so its cache statistics may
+	 * be registered in JMX alongside any other environments in the same JVM.
+	 */
+	private static final AtomicInteger contextCounter = new AtomicInteger();
+
+	/**
+	 * The secret sent by {@link #doRequest(boolean, com.semanticcms.core.controller.BenchmarkEnvironment.RequestHandler) exporting requests},
+	 * so they are trusted to use the export cache.
+	 */
+	private static final String EXPORT_CACHE_SECRET = "benchmark";
+
+	/**
+	 * Creates an implementation of the given interface, where each method is
+	 * looked-up by name.  Any other method throws {@link UnsupportedOperationException},
+	 * so the benchmarks fail fast instead of measuring an unexpected code path.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T newProxy(Class<T> iface, String description, Map<String, Function<Object[], Object>> methods) {
+		return (T)Proxy.newProxyInstance(
+			iface.getClassLoader(),
+			new Class<?>[] {iface},
+			(proxy, method, args) -> {
+				String name = method.getName();
+				Function<Object[], Object> impl = methods.get(name);
+				if(impl != null) return impl.apply(args);
+				switch(name) {
+					case "toString" : return description;
+					case "hashCode" : return System.identityHashCode(proxy);
+					case "equals"   : return proxy == args[0];
+					default         : throw new UnsupportedOperationException(description + ": " + method);
+				}
+			}
+		);
+	}
+
+	private static Path toPath(String path) {
+		try {
+			return Path.valueOf(path);
+		} catch(ValidationException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	static class InMemorySemanticCMS extends SemanticCMS {
+
+		private InMemorySemanticCMS(ServletContext servletContext) throws IOException, SAXException, ParserConfigurationException, XPathExpressionException, ValidationException {
+			super(servletContext);
+		}
+
+		@Override
+		protected InMemoryBook newBook(
+			BookRef bookRef,
+			Collection<String> resourceDirectories,
+			boolean allowRobots,
+			Set<ParentRef> parentRefs
+		) {
+			return new InMemoryBook(bookRef, allowRobots, parentRefs);
+		}
+	}
+
+	private final File tempDir;
+
+	private final File booksXml;
+
+	private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+	final ServletContext servletContext;
+
+	final InMemorySemanticCMS semanticCMS;
+
+	final BookRef rootBookRef;
+
+	private final ConcurrencyCoordinator concurrencyCoordinator;
+
+	private final CacheFilter cacheFilter;
+
+	/**
+	 * @param bookCount  The total number of books, including the root book
+	 * @param initParams  The context init parameters, such as
+	 *                    <code>com.semanticcms.core.controller.SemanticCMS.concurrentSubrequests</code>.
+	 *                    The export cache secret is set unless provided.
+	 */
+	BenchmarkEnvironment(int bookCount, Map<String, String> initParams) throws IOException, ServletException {
+		if(bookCount < 1) throw new IllegalArgumentException("bookCount < 1: " + bookCount);
+		Map<String, String> contextParams = new HashMap<>(initParams);
+		contextParams.putIfAbsent(SemanticCMS.class.getName() + ".exportCache.secret", EXPORT_CACHE_SECRET);
+		tempDir = Files.createTempDirectory("semanticcms-core-controller-benchmark").toFile();
+		booksXml = new File(tempDir, "books.xml");
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<books xmlns=\"https://semanticcms.com/core/controller/books-1.1.xsd\" rootBook=\"/\">\n"
+			+ "\t<book name=\"/\" />\n");
+		for(int i = 1; i < bookCount; i++) {
+			xml.append("\t<book name=\"/books/book-").append(i).append("\">\n"
+				+ "\t\t<parent book=\"/\" page=\"/\" />\n"
+				+ "\t</book>\n");
+		}
+		xml.append("</books>\n");
+		Files.write(booksXml.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+		attributes.put("javax.servlet.context.tempdir", tempDir);
+
+		Map<String, Function<Object[], Object>> contextMethods = new HashMap<>();
+		contextMethods.put("getAttribute", args -> attributes.get((String)args[0]));
+		contextMethods.put("setAttribute", args -> {
+			if(args[1] == null) attributes.remove((String)args[0]);
+			else attributes.put((String)args[0], args[1]);
+			return null;
+		});
+		contextMethods.put("removeAttribute", args -> attributes.remove((String)args[0]));
+		contextMethods.put("getAttributeNames", args -> Collections.enumeration(attributes.keySet()));
+		contextMethods.put("getInitParameter", args -> contextParams.get((String)args[0]));
+		contextMethods.put("getInitParameterNames", args -> Collections.enumeration(contextParams.keySet()));
+		String contextPath = "/benchmark-" + contextCounter.incrementAndGet();
+		contextMethods.put("getContextPath", args -> contextPath);
+		contextMethods.put("getResource", args -> {
+			if(!"/WEB-INF/books.xml".equals(args[0])) return null;
+			try {
+				return booksXml.toURI().toURL();
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		contextMethods.put("getResourceAsStream", args -> null);
+		contextMethods.put("getRealPath", args -> null);
+		contextMethods.put("getMajorVersion", args -> 3);
+		contextMethods.put("getMinorVersion", args -> 0);
+		contextMethods.put("log", args -> null);
+		servletContext = newProxy(ServletContext.class, "benchmark", contextMethods);
+
+		try {
+			semanticCMS = new InMemorySemanticCMS(servletContext);
+		} catch(SAXException | ParserConfigurationException | XPathExpressionException | ValidationException e) {
+			throw new ServletException(e);
+		}
+		servletContext.setAttribute(SemanticCMS.APPLICATION_ATTRIBUTE, semanticCMS);
+		rootBookRef = semanticCMS.getRootBook().getBookRef();
+
+		concurrencyCoordinator = new ConcurrencyCoordinator();
+		concurrencyCoordinator.contextInitialized(new ServletContextEvent(servletContext));
+
+		Map<String, Function<Object[], Object>> filterConfigMethods = new HashMap<>();
+		filterConfigMethods.put("getServletContext", args -> servletContext);
+		filterConfigMethods.put("getInitParameter", args -> null);
+		filterConfigMethods.put("getFilterName", args -> CacheFilter.class.getName());
+		cacheFilter = new CacheFilter();
+		cacheFilter.init(newProxy(FilterConfig.class, "benchmark:" + CacheFilter.class.getName(), filterConfigMethods));
+	}
+
+	@Override
+	public void close() {
+		cacheFilter.destroy();
+		semanticCMS.destroy();
+		File[] files = tempDir.listFiles();
+		if(files != null) {
+			for(File file : files) file.delete();
+		}
+		tempDir.delete();
+	}
+
+	/**
+	 * Gets the path of the published book with the given index, where zero is the root book.
+	 */
+	static Path getBookPath(int index) {
+		return index == 0 ? Path.ROOT : toPath("/books/book-" + index);
+	}
+
+	InMemoryBook getBook(BookRef bookRef) {
+		return (InMemoryBook)semanticCMS.getBook(bookRef);
+	}
+
+	/**
+	 * Gets the page reference for the page with the given breadth-first index
+	 * within a {@link #addPageDag(com.semanticcms.core.model.BookRef, int, int) page DAG}.
+	 */
+	static PageRef getPageRef(BookRef bookRef, int index) {
+		return new PageRef(bookRef, index == 0 ? Path.ROOT : toPath("/page-" + index));
+	}
+
+	/**
+	 * Gets the number of pages in a {@link #addPageDag(com.semanticcms.core.model.BookRef, int, int) page DAG}.
+	 */
+	static int getPageCount(int fanout, int depth) {
+		int count = 0;
+		int levelSize = 1;
+		for(int d = 0; d <= depth; d++) {
+			count += levelSize;
+			levelSize *= fanout;
+		}
+		return count;
+	}
+
+	private static void link(Page parent, Page child) {
+		parent.addChildRef(new ChildRef(child.getPageRef()));
+		child.addParentRef(new ParentRef(parent.getPageRef(), null));
+	}
+
+	/**
+	 * Adds a synthetic page DAG to a book.  Pages are numbered breadth-first,
+	 * with the root at <code>/</code> and the children of page <i>n</i> being
+	 * <i>n</i> * fanout + 1 through <i>n</i> * fanout + fanout.  Beyond this tree,
+	 * the first child of each page also has the previous page at the same depth
+	 * as a parent, so traversals encounter already-visited pages.
+	 *
+	 * @return  The root of the DAG
+	 */
+	PageRef addPageDag(BookRef bookRef, int fanout, int depth) {
+		if(fanout < 1) throw new IllegalArgumentException("fanout < 1: " + fanout);
+		int count = getPageCount(fanout, depth);
+		Page[] pages = new Page[count];
+		int[] depths = new int[count];
+		for(int n = 0; n < count; n++) {
+			Page page = new Page();
+			page.setPageRef(getPageRef(bookRef, n));
+			page.setTitle("Page " + n);
+			pages[n] = page;
+			if(n > 0) {
+				int parent = (n - 1) / fanout;
+				depths[n] = depths[parent] + 1;
+				link(pages[parent], page);
+				if(
+					(n - 1) % fanout == 0
+					&& parent > 0
+					&& depths[parent - 1] == depths[parent]
+				) {
+					link(pages[parent - 1], page);
+				}
+			}
+		}
+		InMemoryBook.InMemoryPageRepository repository = getBook(bookRef).getPages();
+		for(Page page : pages) repository.addPage(page);
+		return pages[0].getPageRef();
+	}
+
+	/**
+	 * Registers a renderer for each of the given suffixes.  The renderers only
+	 * support lookup and must not be used to render pages.
+	 */
+	void addRenderers(Iterable<String> suffixes) {
+		for(String suffix : suffixes) {
+			Map<String, Function<Object[], Object>> rendererMethods = new HashMap<>();
+			rendererMethods.put("getCaptureLevel", args -> CaptureLevel.META);
+			semanticCMS.addRenderer(suffix, newProxy(Renderer.class, "renderer:" + suffix, rendererMethods));
+		}
+	}
+
+	@FunctionalInterface
+	static interface RequestHandler<T> {
+		T handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+	}
+
+	/**
+	 * Performs a request through the {@link ConcurrencyCoordinator} and
+	 * {@link CacheFilter}, as a single request in a container would be.
+	 *
+	 * @param  exporting  When {@code true}, sends the {@link Headers#EXPORTING_HEADER} along with the
+	 *                    {@link Headers#EXPORTING_SECRET_HEADER}, so the request uses the export cache
+	 */
+	<T> T doRequest(boolean exporting, RequestHandler<T> handler) throws ServletException, IOException {
+		Map<String, Object> requestAttributes = new HashMap<>();
+		Map<String, Function<Object[], Object>> requestMethods = new HashMap<>();
+		requestMethods.put("getAttribute", args -> requestAttributes.get((String)args[0]));
+		requestMethods.put("setAttribute", args -> {
+			if(args[1] == null) requestAttributes.remove((String)args[0]);
+			else requestAttributes.put((String)args[0], args[1]);
+			return null;
+		});
+		requestMethods.put("removeAttribute", args -> requestAttributes.remove((String)args[0]));
+		requestMethods.put("getAttributeNames", args -> Collections.enumeration(requestAttributes.keySet()));
+		requestMethods.put("getServletContext", args -> servletContext);
+		requestMethods.put("getHeader", args -> {
+			if(exporting) {
+				String name = (String)args[0];
+				if(Headers.EXPORTING_HEADER.equalsIgnoreCase(name)) return "true";
+				if(Headers.EXPORTING_SECRET_HEADER.equalsIgnoreCase(name)) return EXPORT_CACHE_SECRET;
+			}
+			return null;
+		});
+		requestMethods.put("getMethod", args -> "GET");
+		requestMethods.put("getContextPath", args -> "");
+		requestMethods.put("getServletPath", args -> "/");
+		requestMethods.put("getPathInfo", args -> null);
+		requestMethods.put("getRequestURI", args -> "/");
+		requestMethods.put("getQueryString", args -> null);
+		requestMethods.put("getCharacterEncoding", args -> StandardCharsets.UTF_8.name());
+		requestMethods.put("isAsyncSupported", args -> false);
+		requestMethods.put("isAsyncStarted", args -> false);
+		HttpServletRequest request = newProxy(HttpServletRequest.class, "benchmark:request", requestMethods);
+
+		Map<String, Function<Object[], Object>> responseMethods = new HashMap<>();
+		responseMethods.put("getCharacterEncoding", args -> StandardCharsets.UTF_8.name());
+		responseMethods.put("getContentType", args -> null);
+		responseMethods.put("isCommitted", args -> false);
+		HttpServletResponse response = newProxy(HttpServletResponse.class, "benchmark:response", responseMethods);
+
+		// As would be done by CountConcurrencyListener for the only request in progress
+		Integer concurrency = 1;
+		request.setAttribute(CountConcurrencyListener.REQUEST_ATTRIBUTE, concurrency);
+		concurrencyCoordinator.attributeAdded(
+			new ServletRequestAttributeEvent(servletContext, request, CountConcurrencyListener.REQUEST_ATTRIBUTE, concurrency)
+		);
+		try {
+			Object[] result = new Object[1];
+			cacheFilter.doFilter(
+				request,
+				response,
+				(req, resp) -> result[0] = handler.handle((HttpServletRequest)req, (HttpServletResponse)resp)
+			);
+			@SuppressWarnings("unchecked")
+			T t = (T)result[0];
+			return t;
+		} finally {
+			request.removeAttribute(CountConcurrencyListener.REQUEST_ATTRIBUTE);
+			concurrencyCoordinator.attributeRemoved(
+				new ServletRequestAttributeEvent(servletContext, request, CountConcurrencyListener.REQUEST_ATTRIBUTE, concurrency)
+			);
+		}
+	}
+}
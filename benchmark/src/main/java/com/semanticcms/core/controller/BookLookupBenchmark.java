@@ -0,0 +1,91 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SemanticCMS#getPublishedBook(java.lang.String)}, which is
+ * performed for every request, by number of published books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class BookLookupBenchmark {
+
+	@Param({"1", "10", "100"})
+	public int bookCount;
+
+	private BenchmarkEnvironment environment;
+
+	/**
+	 * A page within the last book, several segments deep.
+	 */
+	private String bookPagePath;
+
+	/**
+	 * A path matching no book other than the root book.
+	 */
+	private String rootPagePath;
+
+	@Setup
+	public void setup() throws ServletException, IOException {
+		environment = new BenchmarkEnvironment(bookCount, Collections.emptyMap());
+		bookPagePath = BenchmarkEnvironment.getBookPath(bookCount - 1) + "/chapter/section/page.html";
+		if(bookPagePath.startsWith("//")) bookPagePath = bookPagePath.substring(1);
+		rootPagePath = "/other/chapter/section/page.html";
+	}
+
+	@TearDown
+	public void tearDown() {
+		environment.close();
+	}
+
+	@Benchmark
+	public Book bookPage() {
+		return environment.semanticCMS.getPublishedBook(bookPagePath);
+	}
+
+	@Benchmark
+	public Book rootPage() {
+		return environment.semanticCMS.getPublishedBook(rootPagePath);
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.Page;
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.pages.CaptureLevel;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Cache#get(com.semanticcms.core.model.PageRef, com.semanticcms.core.pages.CaptureLevel)}
+ * and {@link Cache#put(com.semanticcms.core.controller.Cache.CaptureKey, com.semanticcms.core.model.Page)}
+ * across the {@link MapCache} implementations, including the bounded caches used while exporting.
+ * <p>
+ * The cache is used by a single thread, as is the case for request-level caches.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class CacheBenchmark {
+
+	private static final int FANOUT = 10;
+
+	private static final int DEPTH = 3;
+
+	@Param({
+		"SingleThreadCache",
+		"SynchronizedCache",
+		"ConcurrentCache",
+		"SynchronizedCache.export",
+		"ConcurrentCache.export"
+	})
+	public String implementation;
+
+	private BenchmarkEnvironment environment;
+
+	/**
+	 * The pages in the cache.
+	 */
+	private Page[] pages;
+
+	/**
+	 * The keys of the pages, at {@link CaptureLevel#META}.
+	 */
+	private Cache.CaptureKey[] keys;
+
+	/**
+	 * References to pages that are never in the cache.
+	 */
+	private PageRef[] missing;
+
+	private Cache cache;
+
+	private int index;
+
+	@Setup
+	public void setup() throws ServletException, IOException {
+		environment = new BenchmarkEnvironment(1, Collections.emptyMap());
+		environment.addPageDag(environment.rootBookRef, FANOUT, DEPTH);
+		InMemoryBook.InMemoryPageRepository repository = environment.getBook(environment.rootBookRef).getPages();
+		int count = BenchmarkEnvironment.getPageCount(FANOUT, DEPTH);
+		pages = new Page[count];
+		keys = new Cache.CaptureKey[count];
+		missing = new PageRef[count];
+		for(int i = 0; i < count; i++) {
+			PageRef pageRef = BenchmarkEnvironment.getPageRef(environment.rootBookRef, i);
+			pages[i] = repository.getPage(pageRef.getPath(), CaptureLevel.META);
+			keys[i] = new Cache.CaptureKey(pageRef, CaptureLevel.META);
+			missing[i] = BenchmarkEnvironment.getPageRef(environment.rootBookRef, count + i);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		environment.close();
+	}
+
+	private Cache newCache() {
+		SemanticCMS semanticCMS = environment.semanticCMS;
+		int maxSize = semanticCMS.getExportCacheMaxSize();
+		switch(implementation) {
+			case "SingleThreadCache"        : return new SingleThreadCache(semanticCMS, null);
+			case "SynchronizedCache"        : return new SynchronizedCache(semanticCMS, (SharedCache)null);
+			case "ConcurrentCache"          : return new ConcurrentCache(semanticCMS, (SharedCache)null);
+			case "SynchronizedCache.export" : return new SynchronizedCache(semanticCMS, maxSize);
+			case "ConcurrentCache.export"   : return new ConcurrentCache(semanticCMS, maxSize);
+			default : throw new AssertionError("Unexpected implementation: " + implementation);
+		}
+	}
+
+	/**
+	 * Starts each iteration with a full cache.
+	 */
+	@Setup(Level.Iteration)
+	public void fillCache() throws ServletException {
+		cache = newCache();
+		for(int i = 0; i < keys.length; i++) cache.put(keys[i], pages[i]);
+		index = 0;
+	}
+
+	private int nextIndex() {
+		int i = index;
+		index = (i + 1) % keys.length;
+		return i;
+	}
+
+	@Benchmark
+	public Cache.CaptureResult getHit() throws ServletException {
+		return cache.get(keys[nextIndex()]);
+	}
+
+	/**
+	 * A request for {@link CaptureLevel#PAGE} satisfied by a {@link CaptureLevel#META} capture.
+	 */
+	@Benchmark
+	public Cache.CaptureResult getHitHigherLevel() throws ServletException {
+		return cache.get(keys[nextIndex()].pageRef, CaptureLevel.PAGE);
+	}
+
+	@Benchmark
+	public Cache.CaptureResult getMiss() throws ServletException {
+		return cache.get(missing[nextIndex()], CaptureLevel.META);
+	}
+
+	/**
+	 * Replaces an existing capture.  Parent-child verification is only performed when a page
+	 * is first added to a cache, so is not included.
+	 */
+	@Benchmark
+	public Cache put() throws ServletException {
+		int i = nextIndex();
+		cache.put(keys[i], pages[i]);
+		return cache;
+	}
+}
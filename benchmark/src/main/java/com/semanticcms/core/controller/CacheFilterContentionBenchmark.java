@@ -0,0 +1,89 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the export cache resolution performed by {@link CacheFilter} on every
+ * request, with many concurrent non-exporting requests.
+ * <p>
+ * Compares the lock-free {@link CacheFilter#getExportCache(boolean)} against
+ * the former synchronized implementation in {@link LegacyExportCacheState}.
+ * Run with a higher thread count using <code>-t</code>, such as
+ * <code>java -jar target/benchmarks.jar CacheFilterContentionBenchmark -t 128</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(64)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class CacheFilterContentionBenchmark {
+
+	/**
+	 * Whether an export cache is currently active, which non-exporting requests
+	 * check for expiration.
+	 */
+	@Param({"false", "true"})
+	public boolean exportCacheActive;
+
+	private CacheFilter cacheFilter;
+
+	private LegacyExportCacheState legacy;
+
+	@Setup
+	public void setup() {
+		// Not initialized, which is not needed for export cache resolution
+		cacheFilter = new CacheFilter();
+		legacy = new LegacyExportCacheState();
+		if(exportCacheActive) {
+			cacheFilter.getExportCache(true);
+			legacy.getExportCache(true);
+		}
+	}
+
+	@Benchmark
+	public Cache lockFree() {
+		return cacheFilter.getExportCache(false);
+	}
+
+	@Benchmark
+	public Cache synchronizedLock() {
+		return legacy.getExportCache(false);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.collections.AoCollections;
+import com.aoindustries.net.Path;
+import com.semanticcms.core.model.Author;
+import com.semanticcms.core.model.BookRef;
+import com.semanticcms.core.model.Copyright;
+import com.semanticcms.core.model.Page;
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.model.ParentRef;
+import com.semanticcms.core.model.ResourceRef;
+import com.semanticcms.core.pages.CaptureLevel;
+import com.semanticcms.core.pages.PageRepository;
+import com.semanticcms.core.resources.ResourceStore;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A book with its pages held in memory, standing in for a {@link ServletBook}
+ * so the benchmarks measure the controller instead of page invocation.
+ */
+class InMemoryBook extends Book {
+
+	/**
+	 * Serves pages from memory, returning the same page for all capture levels.
+	 */
+	static class InMemoryPageRepository implements PageRepository {
+
+		private final BookRef bookRef;
+
+		private final Map<Path, Page> pages = new ConcurrentHashMap<>();
+
+		InMemoryPageRepository(BookRef bookRef) {
+			this.bookRef = bookRef;
+		}
+
+		@Override
+		public String toString() {
+			return "memory:" + bookRef;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return true;
+		}
+
+		@Override
+		public Page getPage(Path path, CaptureLevel level) {
+			return pages.get(path);
+		}
+
+		void addPage(Page page) {
+			PageRef pageRef = page.getPageRef();
+			if(!pageRef.getBookRef().equals(bookRef)) throw new IllegalArgumentException("Page not in book: " + pageRef);
+			if(pages.putIfAbsent(pageRef.getPath(), page) != null) throw new IllegalStateException("Page already added: " + pageRef);
+		}
+	}
+
+	private final boolean allowRobots;
+
+	private final Set<ParentRef> unmodifiableParentRefs;
+
+	private final InMemoryPageRepository pages;
+
+	InMemoryBook(BookRef bookRef, boolean allowRobots, Set<ParentRef> parentRefs) {
+		super(bookRef, null);
+		this.allowRobots = allowRobots;
+		this.unmodifiableParentRefs = AoCollections.optimalUnmodifiableSet(parentRefs);
+		this.pages = new InMemoryPageRepository(bookRef);
+	}
+
+	@Override
+	public boolean isAccessible() {
+		return true;
+	}
+
+	@Override
+	public InMemoryPageRepository getPages() {
+		return pages;
+	}
+
+	@Override
+	public ResourceStore getResources() {
+		return null;
+	}
+
+	@Override
+	public ResourceRef getPageSource(PageRef pageRef) {
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings("ReturnOfCollectionOrArrayField") // Returning unmodifiable
+	public Set<ParentRef> getParentRefs() {
+		return unmodifiableParentRefs;
+	}
+
+	@Override
+	public PageRef getContentRoot() {
+		return new PageRef(bookRef, Path.ROOT);
+	}
+
+	@Override
+	public Copyright getCopyright() {
+		return null;
+	}
+
+	@Override
+	public Set<Author> getAuthors() {
+		return Collections.emptySet();
+	}
+
+	@Override
+	public String getTitle() {
+		return bookRef.toString();
+	}
+
+	@Override
+	public boolean getAllowRobots() {
+		return allowRobots;
+	}
+
+	@Override
+	public Map<String, String> getParam() {
+		return Collections.emptyMap();
+	}
+}
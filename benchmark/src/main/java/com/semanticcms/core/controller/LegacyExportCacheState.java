@@ -0,0 +1,100 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A copy of the export cache state management formerly used by {@link CacheFilter},
+ * which synchronized on a single lock and read a servlet context attribute on every request.
+ * This is the baseline for {@link CacheFilterContentionBenchmark}.
+ */
+class LegacyExportCacheState {
+
+	private static final String EXPORT_CACHE_APPLICATION_ATTRIBUTE = CacheFilter.class.getName() + ".exportCache";
+
+	private static final long EXPORT_CAPTURE_PAGE_CACHE_TTL = 60 * 1000; // one minute
+
+	private class ExportPageCache {
+
+		private long cacheStart;
+
+		private Cache cache;
+
+		boolean invalidateCache(long currentTime) {
+			assert Thread.holdsLock(exportCacheLock);
+			if(cache == null) {
+				return true;
+			} else if(
+				currentTime >= (cacheStart + EXPORT_CAPTURE_PAGE_CACHE_TTL)
+				// Handle system time changes
+				|| currentTime <= (cacheStart - EXPORT_CAPTURE_PAGE_CACHE_TTL)
+			) {
+				cache = null;
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		Cache getCache(long currentTime) {
+			assert Thread.holdsLock(exportCacheLock);
+			invalidateCache(currentTime);
+			if(cache == null) {
+				cacheStart = currentTime;
+				cache = new SynchronizedCache(null, null);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Servlet containers typically store context attributes in a concurrent map.
+	 */
+	private final Map<String, Object> servletContextAttributes = new ConcurrentHashMap<>();
+
+	private static class ExportCacheLock {}
+	private final ExportCacheLock exportCacheLock = new ExportCacheLock();
+
+	Cache getExportCache(boolean isExporting) {
+		synchronized(exportCacheLock) {
+			ExportPageCache exportCache = (ExportPageCache)servletContextAttributes.get(EXPORT_CACHE_APPLICATION_ATTRIBUTE);
+			if(isExporting) {
+				if(exportCache == null) {
+					exportCache = new ExportPageCache();
+					servletContextAttributes.put(EXPORT_CACHE_APPLICATION_ATTRIBUTE, exportCache);
+				}
+				return exportCache.getCache(System.currentTimeMillis());
+			} else {
+				// Clean-up stale export cache
+				if(exportCache != null) {
+					if(exportCache.invalidateCache(System.currentTimeMillis())) {
+						servletContextAttributes.remove(EXPORT_CACHE_APPLICATION_ATTRIBUTE);
+					}
+				}
+				return null;
+			}
+		}
+	}
+}
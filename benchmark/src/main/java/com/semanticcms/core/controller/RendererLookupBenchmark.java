@@ -0,0 +1,113 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.net.Path;
+import com.aoindustries.util.Tuple2;
+import com.aoindustries.validation.ValidationException;
+import com.semanticcms.core.renderer.Renderer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SemanticCMS#getRendererAndPath(com.aoindustries.net.Path)},
+ * which is performed for every request, by number of registered renderers.
+ * <p>
+ * In addition to an empty suffix, renderers are registered for ".html", ".amp.html",
+ * and generated suffixes up to the given count.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class RendererLookupBenchmark {
+
+	@Param({"3", "10", "50"})
+	public int rendererCount;
+
+	private BenchmarkEnvironment environment;
+
+	private Path htmlPath;
+
+	private Path ampHtmlPath;
+
+	private Path defaultPath;
+
+	@Setup
+	public void setup() throws ServletException, IOException, ValidationException {
+		environment = new BenchmarkEnvironment(1, Collections.emptyMap());
+		List<String> suffixes = new ArrayList<>(rendererCount);
+		suffixes.add("");
+		suffixes.add(".html");
+		suffixes.add(".amp.html");
+		for(int i = suffixes.size(); i < rendererCount; i++) {
+			suffixes.add(".format-" + i);
+		}
+		environment.addRenderers(suffixes);
+		htmlPath = Path.valueOf("/chapter/section/index.html");
+		ampHtmlPath = Path.valueOf("/chapter/section/page.amp.html");
+		defaultPath = Path.valueOf("/chapter/section/page");
+	}
+
+	@TearDown
+	public void tearDown() {
+		environment.close();
+	}
+
+	@Benchmark
+	public Tuple2<Renderer, Path> html() throws ServletException {
+		return environment.semanticCMS.getRendererAndPath(htmlPath);
+	}
+
+	@Benchmark
+	public Tuple2<Renderer, Path> ampHtml() throws ServletException {
+		return environment.semanticCMS.getRendererAndPath(ampHtmlPath);
+	}
+
+	/**
+	 * Matches only the empty suffix, after checking all others.
+	 */
+	@Benchmark
+	public Tuple2<Renderer, Path> defaultRenderer() throws ServletException {
+		return environment.semanticCMS.getRendererAndPath(defaultPath);
+	}
+}
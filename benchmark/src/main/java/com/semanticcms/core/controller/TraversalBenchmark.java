@@ -0,0 +1,133 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.pages.CaptureLevel;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures full traversals of a synthetic page DAG, each within its own request
+ * through the {@link CacheFilter}, as performed by tree views and exports.
+ * <p>
+ * Without the shared cache, each traversal starts with an empty request-level cache
+ * and captures every page.  With the shared cache, captures are shared between
+ * traversals after the first.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class TraversalBenchmark {
+
+	private static final int DEPTH = 3;
+
+	@Param({"4", "10"})
+	public int fanout;
+
+	@Param({"false", "true"})
+	public boolean concurrentSubrequests;
+
+	@Param({"0", "100000"})
+	public int sharedCacheMaxSize;
+
+	private BenchmarkEnvironment environment;
+
+	private PageRef root;
+
+	@Setup
+	public void setup() throws ServletException, IOException {
+		Map<String, String> initParams = new HashMap<>();
+		initParams.put(SemanticCMS.class.getName() + ".concurrentSubrequests", Boolean.toString(concurrentSubrequests));
+		initParams.put(SemanticCMS.class.getName() + ".sharedCache.maxSize", Integer.toString(sharedCacheMaxSize));
+		environment = new BenchmarkEnvironment(1, initParams);
+		root = environment.addPageDag(environment.rootBookRef, fanout, DEPTH);
+	}
+
+	@TearDown
+	public void tearDown() {
+		environment.close();
+	}
+
+	@Benchmark
+	public int anyOrder() throws ServletException, IOException {
+		return environment.doRequest(false, (request, response) -> {
+			int[] count = new int[1];
+			CapturePage.traversePagesAnyOrder(
+				environment.servletContext,
+				request,
+				response,
+				root,
+				CaptureLevel.META,
+				page -> {
+					count[0]++;
+					return null;
+				},
+				page -> page.getChildRefs(),
+				null
+			);
+			return count[0];
+		});
+	}
+
+	@Benchmark
+	public int depthFirst() throws ServletException, IOException {
+		return environment.doRequest(false, (request, response) -> {
+			int[] count = new int[1];
+			CapturePage.traversePagesDepthFirst(
+				environment.servletContext,
+				request,
+				response,
+				root,
+				CaptureLevel.META,
+				(page, depth) -> {
+					count[0]++;
+					return null;
+				},
+				page -> page.getChildRefs(),
+				null,
+				null
+			);
+			return count[0];
+		});
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.ChildRef;
+import com.semanticcms.core.model.Page;
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.model.ParentRef;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
+
+/**
+ * Verifies page parent-child relationships on a background thread, instead of
+ * inline on the request thread.  Captured pages are queued and verified in
+ * batches, across all requests, against the relationships of the other pages
+ * that have been captured.
+ * <p>
+ * Violations are logged and counted, but do not cause the request to fail.
+ * Inline verification, which fails the request, remains the default and is
+ * recommended during development.
+ * </p>
+ * <p>
+ * The number of pages tracked is bounded, with the least recently used pages
+ * forgotten first.  Relationships to forgotten pages are verified once the
+ * page is captured again.
+ * </p>
+ * <p>
+ * When a page is captured again with different relationships, or is
+ * {@link #invalidate(com.semanticcms.core.model.PageRef) invalidated} because
+ * its source has changed, its previous relationships are forgotten so other
+ * pages are not verified against them.
+ * </p>
+ *
+ * @see  SemanticCMS#getBackgroundVerifier()
+ */
+public class BackgroundVerifier {
+
+	private static final Logger logger = Logger.getLogger(BackgroundVerifier.class.getName());
+
+	/**
+	 * The maximum number of pages waiting to be verified.  Pages submitted
+	 * while full are not verified.
+	 */
+	private static final int MAX_QUEUE_SIZE = 10000;
+
+	/**
+	 * The maximum number of pages verified in one batch.
+	 */
+	private static final int MAX_BATCH_SIZE = 100;
+
+	/**
+	 * The maximum number of pages with relationships tracked.
+	 */
+	private static final int MAX_PAGES = 100000;
+
+	/**
+	 * The relationships of one page.  These are the sets from the page itself,
+	 * without retaining the page.
+	 */
+	private static class Relations {
+
+		private final Set<ParentRef> parentRefs;
+
+		private final Set<ChildRef> childRefs;
+
+		private Relations(Set<ParentRef> parentRefs, Set<ChildRef> childRefs) {
+			this.parentRefs = parentRefs;
+			this.childRefs = childRefs;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Relations)) return false;
+			Relations other = (Relations)o;
+			return
+				parentRefs.equals(other.parentRefs)
+				&& childRefs.equals(other.childRefs)
+			;
+		}
+
+		@Override
+		public int hashCode() {
+			return parentRefs.hashCode() * 31 + childRefs.hashCode();
+		}
+	}
+
+	private final SemanticCMS semanticCMS;
+
+	private final BlockingQueue<Page> queue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+
+	/**
+	 * The relationships of each verified page.
+	 * Only accessed by the verifier thread.
+	 */
+	private final Map<PageRef, Relations> relationsByPageRef = MapCache.newLruMap(MAX_PAGES);
+
+	/**
+	 * Tracks which parent pages are still not verified.
+	 * Only accessed by the verifier thread.
+	 * <ul>
+	 *   <li>Key: The parent pageRef.</li>
+	 *   <li>Value: The page(s) that claim the pageRef as a parent but are still not verified.</li>
+	 * </ul>
+	 */
+	private final Map<PageRef, Set<PageRef>> unverifiedParentsByPageRef = MapCache.newLruMap(MAX_PAGES);
+
+	/**
+	 * Tracks which child pages are still not verified.
+	 * Only accessed by the verifier thread.
+	 * <ul>
+	 *   <li>Key: The child pageRef.</li>
+	 *   <li>Value: The page(s) that claim the pageRef as a child but are still not verified.</li>
+	 * </ul>
+	 */
+	private final Map<PageRef, Set<PageRef>> unverifiedChildrenByPageRef = MapCache.newLruMap(MAX_PAGES);
+
+	/**
+	 * The pages whose relationships are no longer known, to be forgotten by the
+	 * verifier thread before its next batch.
+	 */
+	private final BlockingQueue<PageRef> invalidated = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+
+	/**
+	 * Set when an invalidation could not be queued, in which case all
+	 * relationships are forgotten.
+	 */
+	private volatile boolean invalidateAll;
+
+	private final AtomicLong submitted = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong verified = new AtomicLong();
+
+	private final AtomicLong violations = new AtomicLong();
+
+	private final Thread thread;
+
+	BackgroundVerifier(SemanticCMS semanticCMS) {
+		this.semanticCMS = semanticCMS;
+		thread = new Thread(this::run, BackgroundVerifier.class.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the verifier thread.  Any queued pages are not verified.
+	 */
+	void stop() {
+		thread.interrupt();
+		queue.clear();
+	}
+
+	/**
+	 * Queues a page for verification.
+	 */
+	void submit(Page page) {
+		submitted.incrementAndGet();
+		if(!queue.offer(page)) dropped.incrementAndGet();
+	}
+
+	/**
+	 * Forgets the relationships of a page, such as when its source has changed.
+	 * Pages will not be verified against the page until it is captured again.
+	 */
+	void invalidate(PageRef pageRef) {
+		if(!invalidated.offer(pageRef)) invalidateAll = true;
+	}
+
+	/**
+	 * Gets the number of pages submitted for verification.
+	 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * Gets the number of pages not verified because the queue was full.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the number of pages verified.
+	 */
+	public long getVerified() {
+		return verified.get();
+	}
+
+	/**
+	 * Gets the number of relationship violations found.
+	 */
+	public long getViolations() {
+		return violations.get();
+	}
+
+	/**
+	 * Gets the number of pages currently waiting to be verified.
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	private void run() {
+		List<Page> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+				forgetInvalidated();
+				for(Page page : batch) {
+					try {
+						verify(page);
+					} catch(RuntimeException e) {
+						logger.log(Level.SEVERE, "Unable to verify page: " + page.getPageRef(), e);
+					}
+				}
+				batch.clear();
+			}
+		} catch(InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	private static void addToSet(Map<PageRef, Set<PageRef>> map, PageRef key, PageRef pageRef) {
+		Set<PageRef> pageRefs = map.get(key);
+		if(pageRefs == null) {
+			map.put(key, Collections.singleton(pageRef));
+		} else if(pageRefs.size() == 1) {
+			pageRefs = new HashSet<>(pageRefs);
+			pageRefs.add(pageRef);
+			map.put(key, pageRefs);
+		} else {
+			pageRefs.add(pageRef);
+		}
+	}
+
+	private static void removeFromSet(Map<PageRef, Set<PageRef>> map, PageRef key, PageRef pageRef) {
+		Set<PageRef> pageRefs = map.get(key);
+		if(pageRefs != null && pageRefs.contains(pageRef)) {
+			if(pageRefs.size() == 1) map.remove(key);
+			else pageRefs.remove(pageRef);
+		}
+	}
+
+	/**
+	 * Removes any claims the page made on parents or children that are still
+	 * not verified.
+	 */
+	private void removeUnverified(PageRef pageRef, Relations relations) {
+		for(ParentRef parentRef : relations.parentRefs) {
+			removeFromSet(unverifiedParentsByPageRef, parentRef.getPageRef(), pageRef);
+		}
+		for(ChildRef childRef : relations.childRefs) {
+			removeFromSet(unverifiedChildrenByPageRef, childRef.getPageRef(), pageRef);
+		}
+	}
+
+	/**
+	 * Forgets the relationships of all {@link #invalidate(com.semanticcms.core.model.PageRef) invalidated} pages.
+	 */
+	private void forgetInvalidated() {
+		if(invalidateAll) {
+			invalidateAll = false;
+			invalidated.clear();
+			relationsByPageRef.clear();
+			unverifiedParentsByPageRef.clear();
+			unverifiedChildrenByPageRef.clear();
+		} else {
+			PageRef pageRef;
+			while((pageRef = invalidated.poll()) != null) {
+				Relations relations = relationsByPageRef.remove(pageRef);
+				if(relations != null) removeUnverified(pageRef, relations);
+			}
+		}
+	}
+
+	private void violation(ServletException e) {
+		violations.incrementAndGet();
+		logger.log(Level.WARNING, e.getMessage());
+	}
+
+	/**
+	 * Verifies the page against the other pages already verified, in the same
+	 * manner as {@link MapCache#verifyAdded(com.semanticcms.core.model.Page)}.
+	 */
+	private void verify(Page page) {
+		final PageRef pageRef = page.getPageRef();
+		final Set<ParentRef> parentRefs = page.getParentRefs();
+		final Set<ChildRef> childRefs = page.getChildRefs();
+		Relations relations = new Relations(parentRefs, childRefs);
+		Relations oldRelations = relationsByPageRef.put(pageRef, relations);
+		if(relations.equals(oldRelations)) {
+			// Already verified, such as a page captured again or found in the shared cache
+			return;
+		}
+		// Captured again with different relationships, forget the claims of the previous capture
+		if(oldRelations != null) removeUnverified(pageRef, oldRelations);
+		// Verify parents that have already been verified
+		if(!page.getAllowParentMismatch()) {
+			for(ParentRef parentRef : parentRefs) {
+				PageRef parentPageRef = parentRef.getPageRef();
+				// Can't verify parent reference to missing book
+				if(semanticCMS.getBook(parentPageRef.getBookRef()).isAccessible()) {
+					Relations parentRelations = relationsByPageRef.get(parentPageRef);
+					if(parentRelations != null) {
+						try {
+							PageUtils.verifyChildToParent(pageRef, parentPageRef, parentRelations.childRefs);
+						} catch(ServletException e) {
+							violation(e);
+						}
+					} else {
+						addToSet(unverifiedParentsByPageRef, parentPageRef, pageRef);
+					}
+				}
+			}
+		}
+		// Verify children that have already been verified
+		if(!page.getAllowChildMismatch()) {
+			for(ChildRef childRef : childRefs) {
+				PageRef childPageRef = childRef.getPageRef();
+				// Can't verify child reference to missing book
+				if(semanticCMS.getBook(childPageRef.getBookRef()).isAccessible()) {
+					Relations childRelations = relationsByPageRef.get(childPageRef);
+					if(childRelations != null) {
+						try {
+							PageUtils.verifyParentToChild(pageRef, childPageRef, childRelations.parentRefs);
+						} catch(ServletException e) {
+							violation(e);
+						}
+					} else {
+						addToSet(unverifiedChildrenByPageRef, childPageRef, pageRef);
+					}
+				}
+			}
+		}
+		// Verify any pages that have claimed this page as their parent and are not yet verified
+		Set<PageRef> unverifiedParents = unverifiedParentsByPageRef.remove(pageRef);
+		if(unverifiedParents != null) {
+			for(PageRef unverifiedParent : unverifiedParents) {
+				try {
+					PageUtils.verifyChildToParent(unverifiedParent, pageRef, childRefs);
+				} catch(ServletException e) {
+					violation(e);
+				}
+			}
+		}
+		// Verify any pages that have claimed this page as their child and are not yet verified
+		Set<PageRef> unverifiedChildren = unverifiedChildrenByPageRef.remove(pageRef);
+		if(unverifiedChildren != null) {
+			for(PageRef unverifiedChild : unverifiedChildren) {
+				try {
+					PageUtils.verifyParentToChild(unverifiedChild, pageRef, parentRefs);
+				} catch(ServletException e) {
+					violation(e);
+				}
+			}
+		}
+		verified.incrementAndGet();
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.net.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable index of books by path, which finds the book with the longest
+ * path that is a prefix of a servlet path.  Paths are matched on segment
+ * boundaries, so <code>/book</code> matches <code>/book/page</code> but not
+ * <code>/bookshelf</code>.
+ * <p>
+ * Lookups are performed in a single pass over the servlet path without allocation.
+ * </p>
+ */
+final class BookIndex {
+
+	/**
+	 * A node in the segment trie.  The children are sorted by segment for binary search.
+	 */
+	private static final class Node {
+
+		private static final String[] EMPTY_SEGMENTS = {};
+		private static final Node[] EMPTY_CHILDREN = {};
+
+		/**
+		 * Set when a book path ends at this node, even when its book is {@code null}.
+		 */
+		private boolean matched;
+		private Book book;
+		private String[] segments = EMPTY_SEGMENTS;
+		private Node[] children = EMPTY_CHILDREN;
+
+		/**
+		 * Compares a segment to the region of a servlet path, consistent with {@link String#compareTo(java.lang.String)}.
+		 */
+		private static int compare(String segment, String servletPath, int start, int end) {
+			int segmentLen = segment.length();
+			int regionLen = end - start;
+			int len = Math.min(segmentLen, regionLen);
+			for(int i = 0; i < len; i++) {
+				int diff = segment.charAt(i) - servletPath.charAt(start + i);
+				if(diff != 0) return diff;
+			}
+			return segmentLen - regionLen;
+		}
+
+		/**
+		 * Finds the child for the given region of a servlet path.
+		 *
+		 * @return  The child or {@code null} when not found
+		 */
+		private Node getChild(String servletPath, int start, int end) {
+			int low = 0;
+			int high = segments.length - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				int diff = compare(segments[mid], servletPath, start, end);
+				if(diff < 0) low = mid + 1;
+				else if(diff > 0) high = mid - 1;
+				else return children[mid];
+			}
+			return null;
+		}
+
+		/**
+		 * Gets or adds a child, only used while building the index.
+		 */
+		private Node getOrAddChild(String segment) {
+			int index = Arrays.binarySearch(segments, segment);
+			if(index >= 0) return children[index];
+			int insert = -(index + 1);
+			Node child = new Node();
+			String[] newSegments = new String[segments.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(segments, 0, newSegments, 0, insert);
+			System.arraycopy(children, 0, newChildren, 0, insert);
+			newSegments[insert] = segment;
+			newChildren[insert] = child;
+			System.arraycopy(segments, insert, newSegments, insert + 1, segments.length - insert);
+			System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+			segments = newSegments;
+			children = newChildren;
+			return child;
+		}
+	}
+
+	/**
+	 * Nodes are only modified during construction, and the index is published
+	 * through final fields.
+	 */
+	private final Node root = new Node();
+
+	/**
+	 * @param books  The books by path.  Any book at {@link Path#ROOT} matches all servlet paths
+	 *               not matched by a more specific book.  A {@code null} book matches its path,
+	 *               and those below it, without finding any book.
+	 */
+	BookIndex(Map<Path, ? extends Book> books) {
+		// Sorted for consistent structure regardless of map ordering
+		for(Map.Entry<Path, ? extends Book> entry : new TreeMap<>(books).entrySet()) {
+			String path = entry.getKey().toString();
+			assert path.startsWith(Path.SEPARATOR_STRING);
+			Node node = root;
+			int start = 1;
+			int len = path.length();
+			// Skip any trailing slash
+			if(len > 1 && path.charAt(len - 1) == Path.SEPARATOR_CHAR) len--;
+			while(start < len) {
+				int end = path.indexOf(Path.SEPARATOR_CHAR, start);
+				if(end == -1 || end > len) end = len;
+				node = node.getOrAddChild(path.substring(start, end));
+				start = end + 1;
+			}
+			node.matched = true;
+			node.book = entry.getValue();
+		}
+	}
+
+	/**
+	 * Finds the book with the longest path that is a prefix of the given servlet path.
+	 *
+	 * @return  The book or {@code null} when none matches
+	 */
+	Book getBook(String servletPath) {
+		Node node = root;
+		Book book = node.book;
+		assert node.matched || book == null;
+		int len = servletPath.length();
+		if(len > 0 && servletPath.charAt(0) == Path.SEPARATOR_CHAR) {
+			int start = 1;
+			while(start < len) {
+				int end = servletPath.indexOf(Path.SEPARATOR_CHAR, start);
+				if(end == -1) end = len;
+				node = node.getChild(servletPath, start, end);
+				if(node == null) break;
+				if(node.matched) book = node.book;
+				start = end + 1;
+			}
+		}
+		return book;
+	}
+}
@@ -25,6 +25,7 @@ package com.semanticcms.core.controller;
 import com.semanticcms.core.model.Page;
 import com.semanticcms.core.model.PageRef;
 import com.semanticcms.core.pages.CaptureLevel;
+import java.io.IOException;
 import java.util.Map;
 import java.util.Objects;
 import javax.servlet.ServletException;
@@ -53,9 +54,8 @@ public abstract class Cache {
 
 	/**
 	 * Caches pages that have been captured within the scope of a single request.
-	 *
-	 * IDEA: Could also cache over time, since there is currently no concept of a "user" (except whether request is trusted
-	 *       127.0.0.1 or not).
+	 * Also caches over time when a {@link SharedCache} is enabled, since there is currently no concept of a "user"
+	 * (except whether request is trusted 127.0.0.1 or not).
 	 */
 	static class CaptureKey {
 
@@ -136,14 +136,15 @@ public abstract class Cache {
 	/**
 	 * A lookup of level PAGE will also perform a lookup of META if not found.
 	 */
-	abstract CaptureResult get(CaptureKey key);
+	CaptureResult get(CaptureKey key) throws ServletException {
+		return get(key.pageRef, key.level);
+	}
 
 	/**
 	 * A lookup of level PAGE will also perform a lookup of META if not found.
+	 * This lookup does not allocate a {@link CaptureKey}.
 	 */
-	CaptureResult get(PageRef pageRef, CaptureLevel level) {
-		return get(new CaptureKey(pageRef, level));
-	}
+	abstract CaptureResult get(PageRef pageRef, CaptureLevel level) throws ServletException;
 
 	/**
 	 * Adds the provided page to the cache.  Will also verify parent-child relationships
@@ -151,6 +152,29 @@ public abstract class Cache {
 	 */
 	abstract void put(CaptureKey key, Page page) throws ServletException;
 
+	/**
+	 * Performs a capture that was not found in the cache.
+	 */
+	@FunctionalInterface
+	static interface Capturer {
+		Page capture() throws ServletException, IOException;
+	}
+
+	/**
+	 * Captures a page that was not found in the cache and adds it to the cache.
+	 * <p>
+	 * Caches that may be accessed concurrently coalesce concurrent captures of
+	 * the same key, with later callers waiting on the capture already in progress.
+	 * </p>
+	 *
+	 * @see  CaptureFlights
+	 */
+	Page capture(CaptureKey key, Capturer capturer) throws ServletException, IOException {
+		Page page = capturer.capture();
+		put(key, page);
+		return page;
+	}
+
 	/**
 	 * Creates a new map that is suitable for the expected thread safety requirements.
 	 * This map will itself be consistent with the thread safety guarantees of this cache overall.
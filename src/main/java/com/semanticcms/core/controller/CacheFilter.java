@@ -1,6 +1,6 @@
 /*
  * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
- * Copyright (C) 2016, 2017, 2019, 2020  AO Industries, Inc.
+ * Copyright (C) 2016, 2017, 2019, 2020, 2021  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -23,10 +23,10 @@
 package com.semanticcms.core.controller;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
-import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -41,13 +41,6 @@ public class CacheFilter implements Filter {
 
 	private static final String CAPTURE_CACHE_REQUEST_ATTRIBUTE = CacheFilter.class.getName();
 
-	private static final String EXPORT_CACHE_APPLICATION_ATTRIBUTE = CacheFilter.class.getName() + ".exportCache";
-
-	/**
-	 * The number of milliseconds after the export cache is no longer considered valid.
-	 */
-	private static final long EXPORT_CAPTURE_PAGE_CACHE_TTL = 60 * 1000; // one minute
-
 	/**
 	 * Gets the cache to use for the current request.
 	 * All uses of this cache must synchronize on the map itself.
@@ -62,85 +55,119 @@ public class CacheFilter implements Filter {
 
 	/**
 	 * To speed up an export, the elements are cached between requests.
-	 * The first non-exporting request will clear this cache, and it will also
-	 * be removed after a given number of seconds.
+	 * The cache is removed after a given number of seconds, either replaced by
+	 * the next exporting request or cleaned-up by the next non-exporting request.
+	 * The number of pages is bounded, evicting the least recently used.
+	 * <p>
+	 * Requests are part of an export when they have the {@link Headers#EXPORTING_HEADER} header.
+	 * Since the cache is shared, only exporting requests trusted by
+	 * {@link SemanticCMS#isExportCacheTrusted(javax.servlet.http.HttpServletRequest)} use it.
+	 * </p>
+	 * <p>
+	 * Instances are immutable, with a new instance replacing the expired one.
+	 * </p>
 	 *
 	 * TODO: Consider consequences of caching once we have a security model applied
 	 */
 	private static class ExportPageCache {
-	
-		private final CacheFilter filter;
-
-		private final SemanticCMS semanticCMS;
-
-		/**
-		 * When concurrent subrequests are enabled, use concurrent implementation.
-		 * When export mode without subrequests, use synchronized since exports are typically
-		 * done one request at a time.
-		 */
-		private final boolean concurrentSubrequests;
-
-		private ExportPageCache(CacheFilter filter, SemanticCMS semanticCMS, boolean concurrentSubrequests) {
-			this.filter = filter;
-			this.semanticCMS = semanticCMS;
-			this.concurrentSubrequests = concurrentSubrequests;
-		}
 
 		/**
 		 * The time the cache started, used for expiration.
 		 */
-		private long cacheStart;
-		
-		/**
-		 * The currently active cache.
-		 */
-		private Cache cache;
+		private final long cacheStart;
 
 		/**
-		 * Invalidates the page cache if it has exceeded its TTL.
-		 *
-		 * @return true when the cache is now invalid
+		 * The cache.
 		 */
-		boolean invalidateCache(long currentTime) {
-			assert Thread.holdsLock(filter.exportCacheLock);
-			if(cache == null) {
-				return true;
-			} else if(
-				currentTime >= (cacheStart + EXPORT_CAPTURE_PAGE_CACHE_TTL)
-				// Handle system time changes
-				|| currentTime <= (cacheStart - EXPORT_CAPTURE_PAGE_CACHE_TTL)
-			) {
-				cache = null;
-				return true;
-			} else {
-				return false;
-			}
+		private final Cache cache;
+
+		private ExportPageCache(long cacheStart, Cache cache) {
+			this.cacheStart = cacheStart;
+			this.cache = cache;
 		}
 
 		/**
-		 * Invalidates the cache, if needed, then gets the resulting cache.
+		 * Checks if the page cache has exceeded its TTL.
 		 */
-		Cache getCache(long currentTime) {
-			assert Thread.holdsLock(filter.exportCacheLock);
-			invalidateCache(currentTime);
-			if(cache == null) {
-				cacheStart = currentTime;
-				cache = concurrentSubrequests ? new ConcurrentCache(semanticCMS) : new SynchronizedCache(semanticCMS);
-			}
-			return cache;
+		private boolean isExpired(long currentTime, long ttl) {
+			return
+				currentTime >= (cacheStart + ttl)
+				// Handle system time changes
+				|| currentTime <= (cacheStart - ttl);
 		}
 	}
 
-	private ServletContext servletContext;
+	private SemanticCMS semanticCMS;
+
+	/**
+	 * When concurrent subrequests are enabled, use concurrent implementation.
+	 * When export mode without subrequests, use synchronized since exports are typically
+	 * done one request at a time.
+	 */
 	private boolean concurrentSubrequests;
 
-	private static class ExportCacheLock {}
-	private final ExportCacheLock exportCacheLock = new ExportCacheLock();
+	/**
+	 * The number of milliseconds after the export cache is no longer considered valid.
+	 *
+	 * @see  SemanticCMS#getExportCacheTtl()
+	 */
+	private long exportCacheTtl = SemanticCMS.DEFAULT_EXPORT_CACHE_TTL;
+
+	/**
+	 * The maximum number of pages retained by the export cache.
+	 *
+	 * @see  SemanticCMS#getExportCacheMaxSize()
+	 */
+	private int exportCacheMaxSize = SemanticCMS.DEFAULT_EXPORT_CACHE_MAX_SIZE;
+
+	/**
+	 * The current export cache, {@code null} when none active.
+	 * <p>
+	 * This is read without locking on every request.  Non-exporting requests
+	 * only write when cleaning-up an expired cache.
+	 * </p>
+	 */
+	private final AtomicReference<ExportPageCache> exportCache = new AtomicReference<>();
 
 	@Override
 	public void init(FilterConfig config) throws ServletException {
-		servletContext = config.getServletContext();
-		concurrentSubrequests = SemanticCMS.getInstance(servletContext).getConcurrentSubrequests();
+		semanticCMS = SemanticCMS.getInstance(config.getServletContext());
+		concurrentSubrequests = semanticCMS.getConcurrentSubrequests();
+		exportCacheTtl = semanticCMS.getExportCacheTtl();
+		exportCacheMaxSize = semanticCMS.getExportCacheMaxSize();
+	}
+
+	/**
+	 * Gets the export cache for an exporting request, creating a new cache when
+	 * none active or the active cache has expired.  For a non-exporting request,
+	 * cleans-up any expired export cache.
+	 *
+	 * @return  The export cache or {@code null} when not exporting
+	 */
+	Cache getExportCache(boolean isExporting) {
+		ExportPageCache current = exportCache.get();
+		if(isExporting) {
+			long currentTime = System.currentTimeMillis();
+			while(current == null || current.isExpired(currentTime, exportCacheTtl)) {
+				// The export cache is itself shared between requests, so does not use the shared cache
+				ExportPageCache created = new ExportPageCache(
+					currentTime,
+					concurrentSubrequests
+						? new ConcurrentCache(semanticCMS, exportCacheMaxSize)
+						: new SynchronizedCache(semanticCMS, exportCacheMaxSize)
+				);
+				if(exportCache.compareAndSet(current, created)) return created.cache;
+				current = exportCache.get();
+			}
+			return current.cache;
+		} else {
+			// Clean-up stale export cache
+			if(current != null && current.isExpired(System.currentTimeMillis(), exportCacheTtl)) {
+				// Lost race is OK: another request has already removed or replaced it
+				exportCache.compareAndSet(current, null);
+			}
+			return null;
+		}
 	}
 
 	@Override
@@ -150,35 +177,23 @@ public class CacheFilter implements Filter {
 		if(cache == null) {
 			boolean isExporting;
 			if(request instanceof HttpServletRequest) {
-				// TODO: Do we get rid of this export caching mode?  Or have Renderer affect caching mode?
-				isExporting = false; // TODO: Headers.isExporting((HttpServletRequest)request);
+				HttpServletRequest httpRequest = (HttpServletRequest)request;
+				// TODO: Have Renderer affect caching mode?
+				isExporting =
+					Headers.isExporting(httpRequest)
+					&& semanticCMS.isExportCacheTrusted(httpRequest)
+				;
 			} else {
 				isExporting = false;
 			}
-			synchronized(exportCacheLock) {
-				ExportPageCache exportCache = (ExportPageCache)servletContext.getAttribute(EXPORT_CACHE_APPLICATION_ATTRIBUTE);
-				if(isExporting) {
-					if(exportCache == null) {
-						exportCache = new ExportPageCache(this, SemanticCMS.getInstance(servletContext), concurrentSubrequests);
-						servletContext.setAttribute(EXPORT_CACHE_APPLICATION_ATTRIBUTE, exportCache);
-					}
-					cache = exportCache.getCache(System.currentTimeMillis());
-				} else {
-					// Clean-up stale export cache
-					if(exportCache != null) {
-						if(exportCache.invalidateCache(System.currentTimeMillis())) {
-							servletContext.removeAttribute(EXPORT_CACHE_APPLICATION_ATTRIBUTE);
-						}
-					}
-				}
-			}
+			cache = getExportCache(isExporting);
 			if(cache == null) {
 				// Request-level cache when not exporting
-				SemanticCMS semanticCMS = SemanticCMS.getInstance(servletContext);
+				SharedCache sharedCache = semanticCMS.getSharedCache();
 				if(ConcurrencyCoordinator.useConcurrentSubrequests(request)) {
-					cache = new ConcurrentCache(semanticCMS);
+					cache = new ConcurrentCache(semanticCMS, sharedCache);
 				} else {
-					cache = new SingleThreadCache(semanticCMS);
+					cache = new SingleThreadCache(semanticCMS, sharedCache);
 				}
 			}
 			try {
@@ -195,6 +210,7 @@ public class CacheFilter implements Filter {
 
 	@Override
 	public void destroy() {
-		servletContext = null;
+		semanticCMS = null;
+		exportCache.set(null);
 	}
 }
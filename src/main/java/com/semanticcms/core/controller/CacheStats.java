@@ -0,0 +1,318 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.pages.CaptureLevel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Application-wide statistics of the capture caches, aggregated over all
+ * requests and cache implementations.  Used to size caches and to find pages
+ * that are captured repeatedly.
+ * <p>
+ * Registered with JMX, and may be displayed by {@link CacheStatsServlet}.
+ * </p>
+ *
+ * @see  SemanticCMS#getCacheStats()
+ */
+public class CacheStats implements CacheStatsMBean {
+
+	/**
+	 * The maximum number of pages with capture counts tracked.  When full, the
+	 * {@link #PRUNE_FRACTION} of pages with the lowest counts are forgotten, so the
+	 * most captured pages are retained.
+	 */
+	private static final int MAX_TRACKED_PAGES = 1000;
+
+	/**
+	 * The fraction of tracked pages forgotten when full.
+	 */
+	private static final int PRUNE_FRACTION = 4;
+
+	/**
+	 * The statistics for one cached capture level.
+	 */
+	public static class LevelStats {
+
+		final LongAdder hits = new LongAdder();
+		final LongAdder negativeHits = new LongAdder();
+		final LongAdder sharedHits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder puts = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+
+		private LevelStats() {
+		}
+
+		/**
+		 * Gets the number of lookups found in the request or export cache, including negative hits.
+		 */
+		public long getHits() {
+			return hits.sum();
+		}
+
+		/**
+		 * Gets the number of lookups found in the request or export cache for a page that does not exist.
+		 */
+		public long getNegativeHits() {
+			return negativeHits.sum();
+		}
+
+		/**
+		 * Gets the number of lookups not in the request cache but found in the {@link SharedCache}.
+		 */
+		public long getSharedHits() {
+			return sharedHits.sum();
+		}
+
+		/**
+		 * Gets the number of lookups not found in any cache.
+		 */
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		/**
+		 * Gets the number of captures added to a cache.
+		 */
+		public long getPuts() {
+			return puts.sum();
+		}
+
+		/**
+		 * Gets the number of captures evicted from bounded caches.
+		 */
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		private void reset() {
+			hits.reset();
+			negativeHits.reset();
+			sharedHits.reset();
+			misses.reset();
+			puts.reset();
+			evictions.reset();
+		}
+	}
+
+	private final LevelStats pageStats = new LevelStats();
+
+	private final LevelStats metaStats = new LevelStats();
+
+	private final LongAdder verifications = new LongAdder();
+
+	private final LongAdder verificationNanos = new LongAdder();
+
+	/**
+	 * The number of times each page has been captured.
+	 * This is updated on every capture, so is not locked.
+	 */
+	private final ConcurrentMap<PageRef, LongAdder> captureCounts = new ConcurrentHashMap<>();
+
+	/**
+	 * Set while {@link #captureCounts} is being pruned, so only one thread prunes at a time.
+	 */
+	private final AtomicBoolean pruning = new AtomicBoolean();
+
+	CacheStats() {
+	}
+
+	/**
+	 * Gets the statistics for the given level.
+	 *
+	 * @throws  IllegalArgumentException  for {@link CaptureLevel#BODY}, which is not cached
+	 */
+	public LevelStats getLevelStats(CaptureLevel level) throws IllegalArgumentException {
+		if(level == CaptureLevel.PAGE) return pageStats;
+		if(level == CaptureLevel.META) return metaStats;
+		throw new IllegalArgumentException("Level not cached: " + level);
+	}
+
+	/**
+	 * Records a page capture, for tracking pages captured repeatedly.
+	 */
+	void captured(PageRef pageRef) {
+		LongAdder count = captureCounts.get(pageRef);
+		if(count == null) {
+			if(captureCounts.size() >= MAX_TRACKED_PAGES) pruneCaptureCounts();
+			count = captureCounts.computeIfAbsent(pageRef, key -> new LongAdder());
+		}
+		count.increment();
+	}
+
+	/**
+	 * Forgets the pages with the lowest capture counts.  Other threads continue to
+	 * record captures while one thread prunes.
+	 */
+	private void pruneCaptureCounts() {
+		if(pruning.compareAndSet(false, true)) {
+			try {
+				List<Map.Entry<PageRef, Long>> counts = new ArrayList<>(captureCounts.size());
+				for(Map.Entry<PageRef, LongAdder> entry : captureCounts.entrySet()) {
+					counts.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()));
+				}
+				Collections.sort(counts, (e1, e2) -> Long.compare(e1.getValue(), e2.getValue()));
+				int remove = counts.size() - MAX_TRACKED_PAGES + MAX_TRACKED_PAGES / PRUNE_FRACTION;
+				for(int i = 0; i < remove && i < counts.size(); i++) {
+					captureCounts.remove(counts.get(i).getKey());
+				}
+			} finally {
+				pruning.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Records the time spent in one parent-child verification.
+	 */
+	void verified(long nanos) {
+		verifications.increment();
+		verificationNanos.add(nanos);
+	}
+
+	/**
+	 * Gets the pages captured more than once, most captured first.
+	 *
+	 * @param  limit  The maximum number of pages returned
+	 *
+	 * @return  The number of captures per page, in descending order of captures
+	 */
+	public Map<PageRef, Long> getMostCaptured(int limit) {
+		List<Map.Entry<PageRef, Long>> counts = new ArrayList<>(captureCounts.size());
+		for(Map.Entry<PageRef, LongAdder> entry : captureCounts.entrySet()) {
+			long count = entry.getValue().sum();
+			if(count > 1) counts.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), count));
+		}
+		Collections.sort(counts, (e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+		Map<PageRef, Long> mostCaptured = new LinkedHashMap<>();
+		for(Map.Entry<PageRef, Long> entry : counts) {
+			if(mostCaptured.size() >= limit) break;
+			mostCaptured.put(entry.getKey(), entry.getValue());
+		}
+		return Collections.unmodifiableMap(mostCaptured);
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="CacheStatsMBean">
+	@Override
+	public long getPageHits() {
+		return pageStats.getHits();
+	}
+
+	@Override
+	public long getPageNegativeHits() {
+		return pageStats.getNegativeHits();
+	}
+
+	@Override
+	public long getPageSharedHits() {
+		return pageStats.getSharedHits();
+	}
+
+	@Override
+	public long getPageMisses() {
+		return pageStats.getMisses();
+	}
+
+	@Override
+	public long getPagePuts() {
+		return pageStats.getPuts();
+	}
+
+	@Override
+	public long getPageEvictions() {
+		return pageStats.getEvictions();
+	}
+
+	@Override
+	public long getMetaHits() {
+		return metaStats.getHits();
+	}
+
+	@Override
+	public long getMetaNegativeHits() {
+		return metaStats.getNegativeHits();
+	}
+
+	@Override
+	public long getMetaSharedHits() {
+		return metaStats.getSharedHits();
+	}
+
+	@Override
+	public long getMetaMisses() {
+		return metaStats.getMisses();
+	}
+
+	@Override
+	public long getMetaPuts() {
+		return metaStats.getPuts();
+	}
+
+	@Override
+	public long getMetaEvictions() {
+		return metaStats.getEvictions();
+	}
+
+	@Override
+	public long getVerifications() {
+		return verifications.sum();
+	}
+
+	@Override
+	public long getVerificationTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(verificationNanos.sum());
+	}
+
+	@Override
+	public String[] getMostCaptured() {
+		Map<PageRef, Long> mostCaptured = getMostCaptured(MOST_CAPTURED_LIMIT);
+		String[] result = new String[mostCaptured.size()];
+		int i = 0;
+		for(Map.Entry<PageRef, Long> entry : mostCaptured.entrySet()) {
+			result[i++] = entry.getValue() + " " + entry.getKey();
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		pageStats.reset();
+		metaStats.reset();
+		verifications.reset();
+		verificationNanos.reset();
+		captureCounts.clear();
+	}
+	// </editor-fold>
+}
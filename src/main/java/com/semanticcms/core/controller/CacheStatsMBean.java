@@ -0,0 +1,73 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+/**
+ * JMX management interface for {@link CacheStats}.
+ */
+public interface CacheStatsMBean {
+
+	/**
+	 * The number of pages returned by {@link #getMostCaptured()}.
+	 */
+	int MOST_CAPTURED_LIMIT = 20;
+
+	long getPageHits();
+
+	long getPageNegativeHits();
+
+	long getPageSharedHits();
+
+	long getPageMisses();
+
+	long getPagePuts();
+
+	long getPageEvictions();
+
+	long getMetaHits();
+
+	long getMetaNegativeHits();
+
+	long getMetaSharedHits();
+
+	long getMetaMisses();
+
+	long getMetaPuts();
+
+	long getMetaEvictions();
+
+	long getVerifications();
+
+	long getVerificationTimeMillis();
+
+	/**
+	 * Gets the pages captured more than once, most captured first, each
+	 * formatted as the number of captures followed by the page.
+	 */
+	String[] getMostCaptured();
+
+	/**
+	 * Resets all statistics.
+	 */
+	void reset();
+}
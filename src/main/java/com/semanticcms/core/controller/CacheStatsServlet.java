@@ -0,0 +1,109 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.io.ContentType;
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.pages.CaptureLevel;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Displays the {@link CacheStats} as plain text.
+ * <p>
+ * This servlet is not mapped by default, since it exposes information about the site.
+ * To enable, map in <code>web.xml</code>, with any desired security constraints:
+ * </p>
+ * <pre>&lt;servlet&gt;
+ *   &lt;servlet-name&gt;com.semanticcms.core.controller.CacheStatsServlet&lt;/servlet-name&gt;
+ *   &lt;servlet-class&gt;com.semanticcms.core.controller.CacheStatsServlet&lt;/servlet-class&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *   &lt;servlet-name&gt;com.semanticcms.core.controller.CacheStatsServlet&lt;/servlet-name&gt;
+ *   &lt;url-pattern&gt;/semanticcms-cache-stats&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;</pre>
+ * <p>
+ * The number of most captured pages displayed may be selected with the "limit" parameter.
+ * </p>
+ */
+public class CacheStatsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String LIMIT_PARAM = "limit";
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		int limit;
+		String limitStr = request.getParameter(LIMIT_PARAM);
+		if(limitStr == null) {
+			limit = CacheStatsMBean.MOST_CAPTURED_LIMIT;
+		} else {
+			try {
+				limit = Integer.parseInt(limitStr);
+			} catch(NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid " + LIMIT_PARAM + ": " + limitStr);
+				return;
+			}
+		}
+		CacheStats cacheStats = SemanticCMS.getInstance(getServletContext()).getCacheStats();
+		response.setContentType(ContentType.TEXT);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		out.println("level\thits\tnegativeHits\tsharedHits\tmisses\tputs\tevictions");
+		for(CaptureLevel level : new CaptureLevel[] {CaptureLevel.PAGE, CaptureLevel.META}) {
+			CacheStats.LevelStats levelStats = cacheStats.getLevelStats(level);
+			out.print(level);
+			out.print('\t');
+			out.print(levelStats.getHits());
+			out.print('\t');
+			out.print(levelStats.getNegativeHits());
+			out.print('\t');
+			out.print(levelStats.getSharedHits());
+			out.print('\t');
+			out.print(levelStats.getMisses());
+			out.print('\t');
+			out.print(levelStats.getPuts());
+			out.print('\t');
+			out.println(levelStats.getEvictions());
+		}
+		out.println();
+		out.print("verifications\t");
+		out.println(cacheStats.getVerifications());
+		out.print("verificationTimeMillis\t");
+		out.println(cacheStats.getVerificationTimeMillis());
+		out.println();
+		out.println("captures\tpage");
+		for(Map.Entry<PageRef, Long> entry : cacheStats.getMostCaptured(limit).entrySet()) {
+			out.print(entry.getValue());
+			out.print('\t');
+			out.println(entry.getKey());
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.util.concurrent.ExecutionExceptions;
+import com.semanticcms.core.model.Page;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
+
+/**
+ * Coalesces concurrent captures of the same {@link Cache.CaptureKey}, so that
+ * later callers wait on the capture already in progress instead of performing
+ * the same capture again.
+ * <p>
+ * Waiting is never performed when it would deadlock.  This includes the
+ * re-entrant case where a capture, directly or through concurrent subrequests,
+ * leads back to a capture of itself, as well as cycles of threads waiting on
+ * each other's captures.  In these cases the capture is performed directly,
+ * just as it would be without coalescing.
+ * </p>
+ * <p>
+ * Tasks submitted to executors, such as concurrent subrequests, are {@link #wrap(java.util.concurrent.Callable) wrapped}
+ * to act on behalf of the flights of the submitting thread, so a cycle through such a task,
+ * possibly across requests, is also detected.  Any remaining wait that is not visible, such
+ * as a task still queued behind a saturated executor, is broken by waiting on a flight for at
+ * most {@link #WAIT_TIMEOUT} milliseconds, after which the capture is performed directly.
+ * </p>
+ */
+class CaptureFlights {
+
+	private static final Logger logger = Logger.getLogger(CaptureFlights.class.getName());
+
+	/**
+	 * The maximum number of milliseconds to wait on a capture already in progress.
+	 */
+	static final long WAIT_TIMEOUT = 10 * 1000; // ten seconds
+
+	/**
+	 * A capture currently in progress.
+	 */
+	private static class Flight {
+
+		private final Thread owner = Thread.currentThread();
+
+		private final CompletableFuture<Page> future = new CompletableFuture<>();
+	}
+
+	/**
+	 * The stack of flights owned by the current thread, including any
+	 * inherited from the thread that submitted the current task.
+	 */
+	private static class Owned {
+
+		private final Flight flight;
+
+		private final Owned next;
+
+		private Owned(Flight flight, Owned next) {
+			this.flight = flight;
+			this.next = next;
+		}
+
+		private static boolean contains(Owned owned, Flight flight) {
+			while(owned != null) {
+				if(owned.flight == flight) return true;
+				owned = owned.next;
+			}
+			return false;
+		}
+	}
+
+	private static final ThreadLocal<Owned> owned = new ThreadLocal<>();
+
+	private static class WaitingLock {}
+	private static final WaitingLock waitingLock = new WaitingLock();
+
+	/**
+	 * A thread waiting on a flight, along with the flights it owns, including
+	 * those it acts on behalf of.
+	 */
+	private static class Waiting {
+
+		private final Owned owned;
+
+		private final Flight flight;
+
+		private Waiting(Owned owned, Flight flight) {
+			this.owned = owned;
+			this.flight = flight;
+		}
+	}
+
+	/**
+	 * The flight each thread is currently waiting on.
+	 * All access must synchronize on {@link #waitingLock}.
+	 */
+	private static final Map<Thread, Waiting> waiting = new HashMap<>();
+
+	/**
+	 * Wraps a task so the flights owned by the submitting thread are also
+	 * considered owned while the task runs.  This avoids waiting on a capture
+	 * that is itself waiting for the task.
+	 *
+	 * @see  Executors#wrap(java.util.concurrent.Callable)
+	 */
+	static <T> Callable<T> wrap(Callable<T> task) {
+		final Owned inherited = owned.get();
+		if(inherited == null) return task;
+		return () -> {
+			Owned oldOwned = owned.get();
+			owned.set(inherited);
+			try {
+				return task.call();
+			} finally {
+				if(oldOwned == null) owned.remove();
+				else owned.set(oldOwned);
+			}
+		};
+	}
+
+	/**
+	 * Wraps a task so the flights owned by the submitting thread are also
+	 * considered owned while the task runs.
+	 *
+	 * @see  Executors#wrap(java.lang.Runnable)
+	 */
+	static Runnable wrap(Runnable task) {
+		final Owned inherited = owned.get();
+		if(inherited == null) return task;
+		return () -> {
+			Owned oldOwned = owned.get();
+			owned.set(inherited);
+			try {
+				task.run();
+			} finally {
+				if(oldOwned == null) owned.remove();
+				else owned.set(oldOwned);
+			}
+		};
+	}
+
+	/**
+	 * Checks if waiting on the given flight would deadlock, following the flights
+	 * waited on by the threads that own each flight, including tasks acting on
+	 * behalf of the flight.
+	 */
+	private static boolean wouldDeadlock(Owned currentOwned, Flight flight) {
+		assert Thread.holdsLock(waitingLock);
+		Set<Flight> visited = new HashSet<>();
+		Deque<Flight> toVisit = new ArrayDeque<>();
+		toVisit.add(flight);
+		Flight f;
+		while((f = toVisit.poll()) != null) {
+			if(Owned.contains(currentOwned, f)) return true;
+			if(visited.add(f)) {
+				for(Waiting w : waiting.values()) {
+					if(Owned.contains(w.owned, f)) toVisit.add(w.flight);
+				}
+			}
+		}
+		return false;
+	}
+
+	private final ConcurrentMap<Cache.CaptureKey, Flight> flights = new ConcurrentHashMap<>();
+
+	/**
+	 * Performs the capture, or waits for the capture of the same key already in progress.
+	 */
+	Page capture(Cache.CaptureKey key, Cache.Capturer capturer) throws ServletException, IOException {
+		Flight flight = new Flight();
+		Flight existing = flights.putIfAbsent(key, flight);
+		if(existing == null) {
+			// This thread performs the capture
+			Owned oldOwned = owned.get();
+			owned.set(new Owned(flight, oldOwned));
+			try {
+				Page page = capturer.capture();
+				flight.future.complete(page);
+				return page;
+			} catch(Throwable t) {
+				flight.future.completeExceptionally(t);
+				throw t;
+			} finally {
+				flights.remove(key, flight);
+				if(oldOwned == null) owned.remove();
+				else owned.set(oldOwned);
+			}
+		} else {
+			// Another capture in progress
+			Thread currentThread = Thread.currentThread();
+			Owned currentOwned = owned.get();
+			synchronized(waitingLock) {
+				if(wouldDeadlock(currentOwned, existing)) {
+					existing = null;
+				} else {
+					waiting.put(currentThread, new Waiting(currentOwned, existing));
+				}
+			}
+			if(existing == null) {
+				// Capture directly, without coalescing
+				return capturer.capture();
+			}
+			try {
+				return existing.future.get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch(TimeoutException e) {
+				// May be an undetected deadlock through an executor task: fall-through to capture directly
+				if(logger.isLoggable(Level.WARNING)) {
+					logger.log(
+						Level.WARNING,
+						"Capture of " + key + " not completed by " + existing.owner.getName() + " within "
+							+ WAIT_TIMEOUT + " ms, capturing directly"
+					);
+				}
+			} catch(InterruptedException e) {
+				// Restore the interrupted status
+				currentThread.interrupt();
+				throw new ServletException(e);
+			} catch(ExecutionException e) {
+				// Maintain expected exception types while not losing stack trace
+				ExecutionExceptions.wrapAndThrow(e, IOException.class, IOException::new);
+				throw new ServletException(e);
+			} finally {
+				synchronized(waitingLock) {
+					waiting.remove(currentThread);
+				}
+			}
+			return capturer.capture();
+		}
+	}
+}
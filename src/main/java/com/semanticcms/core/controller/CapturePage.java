@@ -76,7 +76,9 @@ public class CapturePage {
 	 * The capture is always done with a request method of "GET", even when the enclosing request is a different method.
 	 * Also validates parent-child and child-parent relationships if the other related pages happened to already be captured and cached.
 	 *
-	 * TODO: Within the scope of one request and cache, avoid capturing the same page at the same time (CurrencyLimiter applied to sub requests), is there a reasonable way to catch deadlock conditions?
+	 * Concurrent captures of the same page and level are coalesced, with later callers waiting on the capture already in progress.
+	 * This is within the scope of one request and cache, or across requests when the {@link SemanticCMS#getSharedCache() shared cache} is enabled.
+	 * Waiting is skipped when it would deadlock, such as a page that leads back to a capture of itself.
 	 *
 	 * @param level  The minimum page capture level, note that a higher level might be substituted, such as a META capture in place of a PAGE request.
 	 *
@@ -142,13 +144,10 @@ public class CapturePage {
 		// Don't use cache for full body captures
 		boolean useCache = level != CaptureLevel.BODY;
 
-		// cacheKey will be null when this capture is not to be cached
-		final Cache.CaptureKey cacheKey;
 		Page capturedPage;
 		if(useCache) {
 			// Check the cache
-			cacheKey = new Cache.CaptureKey(pageRef, level);
-			Cache.CaptureResult capturedResult = cache.get(cacheKey);
+			Cache.CaptureResult capturedResult = cache.get(pageRef, level);
 			if(capturedResult != null) {
 				capturedPage = capturedResult.page;
 				if(capturedPage == null) return null; // Cached page not found
@@ -158,40 +157,21 @@ public class CapturePage {
 				capturedPage = null;
 			}
 		} else {
-			cacheKey = null;
 			capturedPage = null;
 		}
 
 		if(capturedPage == null) {
-			// Find the book
-			SemanticCMS semanticCMS = SemanticCMS.getInstance(servletContext);
-			final BookRef bookRef = pageRef.getBookRef();
-			Book book = semanticCMS.getBook(bookRef);
-			if(!book.isAccessible()) throw new ServletException("Book is inaccessible: " + bookRef);
-			final PageRepository repository = book.getPages();
-			if(!repository.isAvailable()) throw new ServletException("Page repository is unavailable: " + repository);
-			// TODO: A way to do this without a hard dependency on LocalPageRepository?
-			capturedPage = PageContext.newPageContext(
-				servletContext,
-				subRequest,
-				subResponse,
-				() -> repository.getPage(pageRef.getPath(), level)
-			);
-			if(capturedPage != null) {
-				PageRef capturedPageRef = capturedPage.getPageRef();
-				if(!capturedPageRef.equals(pageRef)) throw new ServletException(
-					"Captured page has unexpected pageRef.  Expected ("
-						+ pageRef.getBookRef()+ ", " + pageRef.getPath()
-						+ ") but got ("
-						+ capturedPageRef.getBookRef() + ", " + capturedPageRef.getPath()
-						+ ')'
+			if(useCache) {
+				// Capture and add to cache, coalescing with any concurrent capture of the same page
+				capturedPage = cache.capture(
+					new Cache.CaptureKey(pageRef, level),
+					() -> doCapturePage(servletContext, subRequest, subResponse, pageRef, level)
 				);
+			} else {
+				capturedPage = doCapturePage(servletContext, subRequest, subResponse, pageRef, level);
 			}
 		}
-		if(useCache) {
-			// Add to cache
-			cache.put(cacheKey, capturedPage);
-		} else {
+		if(!useCache) {
 			if(
 				(
 					// Body capture, performance is not the main objective, perform full child and parent verifications,
@@ -201,12 +181,60 @@ public class CapturePage {
 					|| level == null
 				) && capturedPage != null
 			) {
-				PageUtils.fullVerifyParentChild(servletContext, request, response, capturedPage);
+				BackgroundVerifier backgroundVerifier = SemanticCMS.getInstance(servletContext).getBackgroundVerifier();
+				if(backgroundVerifier != null) {
+					// Verify in the background, without capturing the related pages
+					backgroundVerifier.submit(capturedPage);
+				} else {
+					long startNanos = System.nanoTime();
+					PageUtils.fullVerifyParentChild(servletContext, request, response, capturedPage);
+					SemanticCMS.getInstance(servletContext).getCacheStats().verified(System.nanoTime() - startNanos);
+				}
 			}
 		}
 		return capturedPage;
 	}
 
+	/**
+	 * Performs the capture of a page, without any interaction with the cache.
+	 *
+	 * @return  The captured page or {@code null} if page does not exist.
+	 */
+	private static Page doCapturePage(
+		ServletContext servletContext,
+		IHttpServletSubRequest subRequest,
+		IHttpServletSubResponse subResponse,
+		final PageRef pageRef,
+		final CaptureLevel level
+	) throws ServletException, IOException {
+		// Find the book
+		SemanticCMS semanticCMS = SemanticCMS.getInstance(servletContext);
+		final BookRef bookRef = pageRef.getBookRef();
+		Book book = semanticCMS.getBook(bookRef);
+		if(!book.isAccessible()) throw new ServletException("Book is inaccessible: " + bookRef);
+		final PageRepository repository = book.getPages();
+		if(!repository.isAvailable()) throw new ServletException("Page repository is unavailable: " + repository);
+		// TODO: A way to do this without a hard dependency on LocalPageRepository?
+		Page capturedPage = PageContext.newPageContext(
+			servletContext,
+			subRequest,
+			subResponse,
+			() -> repository.getPage(pageRef.getPath(), level)
+		);
+		semanticCMS.getCacheStats().captured(pageRef);
+		if(capturedPage != null) {
+			PageRef capturedPageRef = capturedPage.getPageRef();
+			if(!capturedPageRef.equals(pageRef)) throw new ServletException(
+				"Captured page has unexpected pageRef.  Expected ("
+					+ pageRef.getBookRef()+ ", " + pageRef.getPath()
+					+ ") but got ("
+					+ capturedPageRef.getBookRef() + ", " + capturedPageRef.getPath()
+					+ ')'
+			);
+		}
+		return capturedPage;
+	}
+
 	/**
 	 * Captures a page in the current page context.
 	 *
@@ -228,6 +256,47 @@ public class CapturePage {
 		);
 	}
 
+	/**
+	 * Checks if a page exists.  This is answered from the cache when the page has already been
+	 * captured at {@link CaptureLevel#PAGE} or {@link CaptureLevel#META}.  Otherwise, the page is
+	 * captured at {@link CaptureLevel#PAGE}, the least expensive level supported by page repositories,
+	 * and cached for later captures.
+	 * <p>
+	 * This is intended for callers that only need to know if a page exists, such as routing and
+	 * link validation, and lets the capture cache decide how little work is required.
+	 * </p>
+	 *
+	 * @return  {@code true} when the page exists
+	 *
+	 * @see  #capturePage(javax.servlet.ServletContext, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, com.semanticcms.core.model.PageReferrer, com.semanticcms.core.pages.CaptureLevel)
+	 */
+	public static boolean exists(
+		ServletContext servletContext,
+		HttpServletRequest request,
+		HttpServletResponse response,
+		PageReferrer pageReferrer
+	) throws ServletException, IOException {
+		// The capture checks the cache first, where a lookup of level PAGE will also perform a lookup of META
+		return capturePage(servletContext, request, response, pageReferrer, CaptureLevel.PAGE) != null;
+	}
+
+	/**
+	 * Checks if a page exists in the current page context.
+	 *
+	 * @return  {@code true} when the page exists
+	 *
+	 * @see  #exists(javax.servlet.ServletContext, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, com.semanticcms.core.model.PageReferrer)
+	 * @see  PageContext
+	 */
+	public static boolean exists(PageReferrer pageReferrer) throws ServletException, IOException {
+		return exists(
+			PageContext.getServletContext(),
+			PageContext.getRequest(),
+			PageContext.getResponse(),
+			pageReferrer
+		);
+	}
+
 	/**
 	 * Captures multiple pages.
 	 *
@@ -0,0 +1,282 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.io.IoUtils;
+import com.aoindustries.tempfiles.TempFile;
+import com.aoindustries.tempfiles.TempFileContext;
+import com.semanticcms.core.resources.ResourceConnection;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A bounded, on-disk cache of gzip-compressed resources.  Each resource is compressed once
+ * per change, identified by its length and last modified time.
+ * <p>
+ * Entries are evicted least-recently-used first once the total size of the compressed
+ * files exceeds the maximum size.  Evicted files are deleted, but any channel already
+ * opened by {@link #openGzip(com.semanticcms.core.resources.ResourceConnection, long, long)}
+ * remains readable until closed.
+ * </p>
+ */
+final class CompressedResourceCache implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(CompressedResourceCache.class.getName());
+
+	/**
+	 * Resources smaller than this are not worth compressing.
+	 */
+	private static final long MIN_LENGTH = 256;
+
+	/**
+	 * The compressed form must be no more than this fraction of the original to be kept.
+	 */
+	private static final double MAX_RATIO = 0.9;
+
+	/**
+	 * The maximum number of entries, including those that were not worth compressing.
+	 */
+	private static final int MAX_ENTRIES = 10000;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static class Entry {
+
+		private final long length;
+		private final long lastModified;
+
+		/**
+		 * Set once the compression has been attempted, guarded by this entry.
+		 */
+		private boolean compressed;
+
+		/**
+		 * The compressed file, or {@code null} when not worth compressing.
+		 * Written while holding the lock on this entry, then only accessed while holding the lock on the cache.
+		 */
+		private TempFile tempFile;
+		private long size;
+
+		/**
+		 * Guarded by the cache.
+		 */
+		private boolean accounted;
+		private boolean removed;
+
+		private Entry(long length, long lastModified) {
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final TempFileContext tempFileContext;
+	private final long maxSize;
+
+	/**
+	 * Access-ordered, guarded by itself.
+	 */
+	private final Map<ResourceKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The total size of all accounted entries, guarded by {@link #entries}.
+	 */
+	private long totalSize;
+
+	/**
+	 * @param  tempDir  The directory to hold the compressed files
+	 * @param  maxSize  The maximum total size of the compressed files
+	 */
+	CompressedResourceCache(File tempDir, long maxSize) {
+		this.tempFileContext = new TempFileContext(tempDir);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Opens the gzip-compressed form of a resource, compressing it on first use.
+	 * Concurrent requests for the same resource wait for a single compression.
+	 *
+	 * @param  length        The length of the resource
+	 * @param  lastModified  The last modified time of the resource
+	 *
+	 * @return  The channel, which must be closed by the caller, or {@code null} when
+	 *          the resource is not worth compressing or cannot be cached
+	 */
+	FileChannel openGzip(ResourceConnection resourceConn, long length, long lastModified) throws IOException {
+		// The length and last modified time identify the version of the resource
+		if(length < MIN_LENGTH || length > maxSize || lastModified == 0) return null;
+		ResourceKey key = new ResourceKey(resourceConn.getResource());
+		Entry entry;
+		synchronized(entries) {
+			entry = entries.get(key);
+			if(
+				entry == null
+				|| entry.length != length
+				|| entry.lastModified != lastModified
+			) {
+				if(entry != null) remove(entries.remove(key));
+				entry = new Entry(length, lastModified);
+				entries.put(key, entry);
+			}
+		}
+		synchronized(entry) {
+			if(!entry.compressed) {
+				entry.tempFile = compress(resourceConn, length);
+				if(entry.tempFile != null) entry.size = entry.tempFile.getFile().length();
+				entry.compressed = true;
+			}
+		}
+		synchronized(entries) {
+			if(!entry.accounted) {
+				if(entry.removed) {
+					// Removed while compressing
+					delete(entry);
+				} else {
+					entry.accounted = true;
+					if(entry.tempFile != null) totalSize += entry.size;
+					// Entries not worth compressing also count toward the maximum number of entries
+					evict(entry);
+				}
+			}
+			if(entry.removed || entry.tempFile == null) return null;
+			// Opened while holding the lock, so eviction cannot delete the file first
+			return FileChannel.open(entry.tempFile.getFile().toPath(), StandardOpenOption.READ);
+		}
+	}
+
+	/**
+	 * Gets the size of the gzip-compressed form of a resource, without compressing it.
+	 *
+	 * @param  length        The length of the resource
+	 * @param  lastModified  The last modified time of the resource
+	 *
+	 * @return  The size or {@code -1} when the current version of the resource is not already compressed
+	 */
+	long getGzipSize(ResourceConnection resourceConn, long length, long lastModified) throws IOException {
+		if(length < MIN_LENGTH || length > maxSize || lastModified == 0) return -1;
+		ResourceKey key = new ResourceKey(resourceConn.getResource());
+		synchronized(entries) {
+			Entry entry = entries.get(key);
+			if(
+				entry == null
+				|| entry.length != length
+				|| entry.lastModified != lastModified
+				|| !entry.accounted
+				|| entry.removed
+				|| entry.tempFile == null
+			) {
+				return -1;
+			}
+			return entry.size;
+		}
+	}
+
+	/**
+	 * Compresses a resource into a new temporary file.
+	 *
+	 * @return  The temporary file or {@code null} when not worth compressing
+	 */
+	private TempFile compress(ResourceConnection resourceConn, long length) throws IOException {
+		TempFile tempFile = tempFileContext.createTempFile("ResourceServlet-", ".gz");
+		boolean keep = false;
+		try {
+			try (
+				InputStream in = resourceConn.getInputStream();
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile.getFile()), BUFFER_SIZE)
+			) {
+				IoUtils.copy(in, out);
+			}
+			keep = tempFile.getFile().length() <= (long)(length * MAX_RATIO);
+			return keep ? tempFile : null;
+		} finally {
+			if(!keep) tempFile.delete();
+		}
+	}
+
+	/**
+	 * Evicts the least-recently-used entries until within bounds.
+	 * Must be holding the lock on {@link #entries}.
+	 *
+	 * @param  keep  The entry that is never evicted
+	 */
+	private void evict(Entry keep) {
+		assert Thread.holdsLock(entries);
+		Iterator<Entry> iter = entries.values().iterator();
+		while(
+			(totalSize > maxSize || entries.size() > MAX_ENTRIES)
+			&& iter.hasNext()
+		) {
+			Entry eldest = iter.next();
+			if(eldest != keep) {
+				iter.remove();
+				remove(eldest);
+			}
+		}
+	}
+
+	/**
+	 * Marks an entry removed, deleting its file once compressed.
+	 * Must be holding the lock on {@link #entries}.
+	 */
+	private void remove(Entry entry) {
+		assert Thread.holdsLock(entries);
+		entry.removed = true;
+		if(entry.accounted) {
+			if(entry.tempFile != null) totalSize -= entry.size;
+			delete(entry);
+		}
+		// Otherwise deleted by the compressing thread
+	}
+
+	private static void delete(Entry entry) {
+		if(entry.tempFile != null) {
+			try {
+				entry.tempFile.delete();
+			} catch(IOException e) {
+				// Left for the temp file context to clean-up
+				logger.log(Level.WARNING, null, e);
+			}
+			entry.tempFile = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(entries) {
+			entries.clear();
+			totalSize = 0;
+		}
+		tempFileContext.close();
+	}
+}
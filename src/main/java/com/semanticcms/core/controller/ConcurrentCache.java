@@ -25,38 +25,80 @@ package com.semanticcms.core.controller;
 import static com.semanticcms.core.controller.Cache.VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS;
 import com.semanticcms.core.model.Page;
 import com.semanticcms.core.model.PageRef;
-import java.util.HashMap;
+import com.semanticcms.core.pages.CaptureLevel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import javax.servlet.ServletException;
 
 /**
  * A page cache that is thread safe through concurrent collections.
  *
- * Is currently still synchronized on parent-child verifications, which only occurs on put.
+ * Parent-child verifications are performed without locking the cache.  A page is registered
+ * as unverified atomically with checking whether its parent or child is cached, so a related
+ * page added concurrently is either found in the cache or finds the page registered as unverified.
  */
 class ConcurrentCache extends MapCache {
 
 	private final ConcurrentMap<String, Object> concurrentAttributes;
 
-	ConcurrentCache(SemanticCMS semanticCMS) {
+	ConcurrentCache(SemanticCMS semanticCMS, SharedCache sharedCache) {
+		this(semanticCMS, sharedCache, new ConcurrentHashMap<PageRef, LevelCaptures>());
+	}
+
+	/**
+	 * Creates a cache that retains the captures of at most the given number of pages,
+	 * evicting the least recently used.
+	 */
+	ConcurrentCache(SemanticCMS semanticCMS, int maxSize) {
+		this(semanticCMS, null, Collections.synchronizedMap(newLruPageCache(semanticCMS, maxSize)));
+	}
+
+	private ConcurrentCache(SemanticCMS semanticCMS, SharedCache sharedCache, Map<PageRef, LevelCaptures> pageCache) {
 		super(
 			semanticCMS,
-			new ConcurrentHashMap<CaptureKey, CaptureResult>(),
-			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new HashMap<PageRef, Set<PageRef>>() : null,
-			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new HashMap<PageRef, Set<PageRef>>() : null,
+			sharedCache,
+			getFlights(sharedCache),
+			pageCache,
+			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new ConcurrentHashMap<PageRef, Set<PageRef>>() : null,
+			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new ConcurrentHashMap<PageRef, Set<PageRef>>() : null,
 			new ConcurrentHashMap<String, Object>()
 		);
 		concurrentAttributes = (ConcurrentMap<String, Object>)attributes;
 	}
 
 	/**
-	 * Overridden to add synchronization.
+	 * Overridden to check the cache and register as unverified atomically, within
+	 * {@link ConcurrentMap#compute(java.lang.Object, java.util.function.BiFunction)}.
+	 * The related page adds itself to the page cache before removing its unverified pages,
+	 * so it will either be seen here or will see this page as unverified.
+	 * <p>
+	 * The sets of unverified pages are only modified while mapped, within compute,
+	 * and are exclusively owned by the thread that removes them.
+	 * </p>
 	 */
 	@Override
-	synchronized protected void verifyAdded(Page page) throws ServletException {
-		super.verifyAdded(page);
+	Page getOrAddUnverified(Map<PageRef, Set<PageRef>> unverifiedByPageRef, PageRef relatedPageRef, final PageRef pageRef) {
+		final Page[] relatedPage = new Page[1];
+		((ConcurrentMap<PageRef, Set<PageRef>>)unverifiedByPageRef).compute(
+			relatedPageRef,
+			(PageRef key, Set<PageRef> pageRefs) -> {
+				CaptureResult relatedResult = getLocal(key, CaptureLevel.PAGE);
+				if(relatedResult != null && relatedResult.page != null) {
+					relatedPage[0] = relatedResult.page;
+					return pageRefs;
+				} else if(pageRefs == null) {
+					return Collections.singleton(pageRef);
+				} else {
+					if(pageRefs.size() == 1) pageRefs = new HashSet<>(pageRefs);
+					pageRefs.add(pageRef);
+					return pageRefs;
+				}
+			}
+		);
+		return relatedPage[0];
 	}
 
 	@Override
@@ -22,6 +22,7 @@
  */
 package com.semanticcms.core.controller;
 
+import com.aoindustries.lang.Strings;
 import com.aoindustries.net.Path;
 import com.aoindustries.servlet.http.Dispatcher;
 import com.aoindustries.servlet.http.HttpServletUtil;
@@ -29,12 +30,16 @@ import com.aoindustries.util.Tuple2;
 import com.aoindustries.validation.ValidationException;
 import com.semanticcms.core.model.Page;
 import com.semanticcms.core.model.PageRef;
-import com.semanticcms.core.pages.CaptureLevel;
 import com.semanticcms.core.renderer.Renderer;
 import com.semanticcms.core.resources.Resource;
 import com.semanticcms.core.resources.ResourceConnection;
 import com.semanticcms.core.resources.ResourceStore;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -71,8 +76,47 @@ public class Controller implements Filter {
 	private static final String NON_HTTP_PASS_THROUGH_INIT_PARAM = "com.semanticcms.core.controller.Controller.nonHttpPassThrough";
 	private static final String NO_BOOK_PASS_THROUGH_INIT_PARAM = "com.semanticcms.core.controller.Controller.noBookPassThrough";
 
+	/**
+	 * The maximum number of servlet paths with cached routing, or zero to disable the cache.
+	 * When full, the cache is cleared.
+	 */
+	private static final String ROUTE_CACHE_MAX_SIZE_INIT_PARAM = "com.semanticcms.core.controller.Controller.routeCache.maxSize";
+
+	private static final int DEFAULT_ROUTE_CACHE_MAX_SIZE = 10000;
+
+	/**
+	 * The number of milliseconds a page is remembered as not found, or zero to disable.
+	 * While remembered, requests for the page go directly to the resources without attempting a capture.
+	 */
+	private static final String PAGE_NOT_FOUND_TTL_INIT_PARAM = "com.semanticcms.core.controller.Controller.pageNotFound.ttl";
+
+	private static final long DEFAULT_PAGE_NOT_FOUND_TTL = 5 * 1000; // five seconds
+
+	/**
+	 * The maximum number of pages remembered as not found.  When full, all are forgotten.
+	 */
+	private static final int PAGE_NOT_FOUND_MAX_SIZE = 10000;
+
+	/**
+	 * The maximum number of milliseconds a request waits for an identical request already rendering
+	 * the same page, or zero to disable.  After waiting, the request renders the page itself.
+	 * This is off by default.
+	 *
+	 * @see  #getCoalesceKey(javax.servlet.http.HttpServletRequest, java.lang.String)
+	 */
+	private static final String COALESCE_TIMEOUT_INIT_PARAM = "com.semanticcms.core.controller.Controller.coalesce.timeout";
+
+	private static final String AUTHORIZATION_HEADER = "Authorization";
+	private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
 	private ServletContext servletContext;
 
+	private int routeCacheMaxSize;
+
+	private long pageNotFoundTtlNanos;
+
+	private long coalesceTimeoutMillis;
+
 	/**
 	 * Gets the servlet context used for this filter.
 	 */
@@ -83,8 +127,248 @@ public class Controller implements Filter {
 	@Override
 	public void init(FilterConfig fc) {
 		servletContext = fc.getServletContext();
+		String maxSizeStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(ROUTE_CACHE_MAX_SIZE_INIT_PARAM));
+		routeCacheMaxSize = maxSizeStr == null ? DEFAULT_ROUTE_CACHE_MAX_SIZE : Integer.parseInt(maxSizeStr);
+		routeCache.set(null);
+		String ttlStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(PAGE_NOT_FOUND_TTL_INIT_PARAM));
+		pageNotFoundTtlNanos = (ttlStr == null ? DEFAULT_PAGE_NOT_FOUND_TTL : Long.parseLong(ttlStr)) * 1000000;
+		pageNotFound.clear();
+		String timeoutStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(COALESCE_TIMEOUT_INIT_PARAM));
+		coalesceTimeoutMillis = timeoutStr == null ? 0 : Long.parseLong(timeoutStr);
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Route Cache">
+	/**
+	 * The routing of a servlet path that does not depend on the request, resolved
+	 * through {@link #getPublishedBook(com.semanticcms.core.controller.SemanticCMS, java.lang.String)} and
+	 * {@link SemanticCMS#getRendererAndPath(com.aoindustries.net.Path)}.
+	 * Protection and pass-through are not part of the route, since they may depend on the request.
+	 */
+	private static final class Route {
+
+		private final Book publishedBook;
+		private final Path publishedPath;
+		private final Tuple2<Renderer, Path> rendererAndPath;
+
+		/**
+		 * Only resolved when first needed, since most requests are handled by the published book.
+		 */
+		private volatile LocalRoute localRoute;
+
+		private Route(
+			Book publishedBook,
+			Path publishedPath,
+			Tuple2<Renderer, Path> rendererAndPath
+		) {
+			this.publishedBook = publishedBook;
+			this.publishedPath = publishedPath;
+			this.rendererAndPath = rendererAndPath;
+		}
+	}
+
+	/**
+	 * The local book of a servlet path, resolved through
+	 * {@link #getLocalBook(com.semanticcms.core.controller.SemanticCMS, java.lang.String)}.
+	 */
+	private static final class LocalRoute {
+
+		private static final LocalRoute NO_LOCAL_BOOK = new LocalRoute(null, null);
+
+		private final Book localBook;
+		private final Path localPath;
+
+		private LocalRoute(Book localBook, Path localPath) {
+			this.localBook = localBook;
+			this.localPath = localPath;
+		}
 	}
 
+	/**
+	 * The routes for one {@link SemanticCMS#getRoutingVersion() routing version}.
+	 */
+	private static final class RouteCache {
+
+		private final int routingVersion;
+
+		private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+		private RouteCache(int routingVersion) {
+			this.routingVersion = routingVersion;
+		}
+	}
+
+	private final AtomicReference<RouteCache> routeCache = new AtomicReference<>();
+
+	private Route newRoute(SemanticCMS semanticCMS, String servletPath) throws ServletException {
+		try {
+			Book publishedBook = getPublishedBook(semanticCMS, servletPath);
+			Path publishedPath;
+			Tuple2<Renderer, Path> rendererAndPath;
+			if(publishedBook == null) {
+				publishedPath = null;
+				rendererAndPath = null;
+			} else {
+				publishedPath = Path.valueOf(servletPath.substring(publishedBook.bookRef.getPrefix().length()));
+				rendererAndPath = semanticCMS.getRendererAndPath(publishedPath);
+			}
+			return new Route(publishedBook, publishedPath, rendererAndPath);
+		} catch(ValidationException e) {
+			throw new ServletException(e);
+		}
+	}
+
+	/**
+	 * Gets the route for a servlet path, resolving and caching it when not already cached.
+	 * The cache is replaced whenever the books or renderers change.
+	 */
+	private Route getRoute(SemanticCMS semanticCMS, String servletPath) throws ServletException {
+		if(routeCacheMaxSize <= 0) return newRoute(semanticCMS, servletPath);
+		int routingVersion = semanticCMS.getRoutingVersion();
+		RouteCache cache = routeCache.get();
+		if(cache == null || cache.routingVersion != routingVersion) {
+			RouteCache created = new RouteCache(routingVersion);
+			// Lost race is OK: use whichever cache is current
+			cache = routeCache.compareAndSet(cache, created) ? created : routeCache.get();
+			if(cache == null || cache.routingVersion != routingVersion) return newRoute(semanticCMS, servletPath);
+		}
+		Route route = cache.routes.get(servletPath);
+		if(route == null) {
+			route = newRoute(semanticCMS, servletPath);
+			if(cache.routes.size() >= routeCacheMaxSize) cache.routes.clear();
+			cache.routes.put(servletPath, route);
+		}
+		return route;
+	}
+
+	/**
+	 * Gets the local book of a servlet path, resolving and caching it with the route when not already resolved.
+	 */
+	private LocalRoute getLocalRoute(SemanticCMS semanticCMS, String servletPath) throws ServletException {
+		Route route = getRoute(semanticCMS, servletPath);
+		LocalRoute localRoute = route.localRoute;
+		if(localRoute == null) {
+			Book localBook = getLocalBook(semanticCMS, servletPath);
+			if(localBook == null) {
+				localRoute = LocalRoute.NO_LOCAL_BOOK;
+			} else {
+				try {
+					localRoute = new LocalRoute(
+						localBook,
+						Path.valueOf(servletPath.substring(localBook.bookRef.getPrefix().length()))
+					);
+				} catch(ValidationException e) {
+					throw new ServletException(e);
+				}
+			}
+			// Lost race is OK: resolves the same
+			route.localRoute = localRoute;
+		}
+		return localRoute;
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Page Not Found">
+	/**
+	 * The pages recently found to not exist, with the {@link System#nanoTime()} they expire.
+	 * Most requests for resources, such as images and stylesheets, also match a renderer.
+	 * Remembering that their page does not exist avoids attempting a capture on every request.
+	 */
+	private final ConcurrentMap<PageRef, Long> pageNotFound = new ConcurrentHashMap<>();
+
+	/**
+	 * Checks if a page was recently found to not exist.
+	 */
+	private boolean isPageNotFound(PageRef pageRef) {
+		if(pageNotFoundTtlNanos <= 0) return false;
+		Long expires = pageNotFound.get(pageRef);
+		if(expires == null) return false;
+		if(System.nanoTime() - expires < 0) return true;
+		pageNotFound.remove(pageRef, expires);
+		return false;
+	}
+
+	/**
+	 * Remembers that a page does not exist.
+	 */
+	private void setPageNotFound(PageRef pageRef) {
+		if(pageNotFoundTtlNanos > 0) {
+			if(pageNotFound.size() >= PAGE_NOT_FOUND_MAX_SIZE) pageNotFound.clear();
+			pageNotFound.put(pageRef, System.nanoTime() + pageNotFoundTtlNanos);
+		}
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Request Coalescing">
+	/**
+	 * A page being rendered by a leading request, which identical requests wait on instead
+	 * of each capturing and rendering the same page.
+	 */
+	private static final class Flight {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile RenderCache.Entry entry;
+
+		/**
+		 * Waits for the leader to complete.
+		 *
+		 * @return  The rendered output or {@code null} when timed-out or the output may not be shared
+		 */
+		private RenderCache.Entry await(long timeoutMillis) throws ServletException {
+			try {
+				return done.await(timeoutMillis, TimeUnit.MILLISECONDS) ? entry : null;
+			} catch(InterruptedException e) {
+				// Restore the interrupted status
+				Thread.currentThread().interrupt();
+				throw new ServletException(e);
+			}
+		}
+
+		private void complete(RenderCache.Entry entry) {
+			this.entry = entry;
+			done.countDown();
+		}
+	}
+
+	/**
+	 * The pages currently being rendered by a leading request, by coalesce key.
+	 */
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the key that identifies requests that may share the same rendered output.
+	 * Coalescing is enabled by the {@link #COALESCE_TIMEOUT_INIT_PARAM} context parameter.
+	 * <p>
+	 * <b>Implementation Note:</b><br>
+	 * This default implementation only coalesces unconditional GET requests without any session or authentication,
+	 * and varies by the servlet path, the query string, and whether {@link Headers#isExporting(javax.servlet.http.HttpServletRequest) exporting}.
+	 * Applications with output varying by other request state, such as cookies or <code>Accept-Language</code>,
+	 * should override this method.
+	 * </p>
+	 *
+	 * @return  The key or {@code null} to not coalesce this request
+	 */
+	protected String getCoalesceKey(HttpServletRequest request, String servletPath) {
+		if(
+			coalesceTimeoutMillis <= 0
+			|| !HttpServletUtil.METHOD_GET.equalsIgnoreCase(request.getMethod())
+			|| request.getHeader(ETags.IF_NONE_MATCH_HEADER) != null
+			|| request.getHeader(IF_MODIFIED_SINCE_HEADER) != null
+			|| request.getRequestedSessionId() != null
+			|| request.getSession(false) != null
+			|| request.getRemoteUser() != null
+			|| request.getUserPrincipal() != null
+			|| request.getHeader(AUTHORIZATION_HEADER) != null
+		) {
+			return null;
+		}
+		// Servlet path always begins with a slash
+		String queryString = request.getQueryString();
+		String key = Headers.isExporting(request) ? ("exporting" + servletPath) : servletPath;
+		return queryString == null ? key : (key + '?' + queryString);
+	}
+	// </editor-fold>
+
 	@Override
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
 		if(
@@ -198,6 +482,9 @@ public class Controller implements Filter {
 	 * <b>Implementation Note:</b><br>
 	 * This default implementation calls {@link SemanticCMS#getPublishedBook(java.lang.String)}
 	 * </p>
+	 * <p>
+	 * The result is cached per servlet path, so must depend only on the servlet path.
+	 * </p>
 	 */
 	protected Book getPublishedBook(SemanticCMS semanticCMS, String servletPath) {
 		return semanticCMS.getPublishedBook(servletPath);
@@ -213,23 +500,19 @@ public class Controller implements Filter {
 	protected void doHttp(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
 		SemanticCMS semanticCMS = SemanticCMS.getInstance(servletContext);
 		String servletPath = Dispatcher.getCurrentPagePath(request);
-		Book publishedBook = getPublishedBook(semanticCMS, servletPath);
-		if(publishedBook == null) {
+		Route route = getRoute(semanticCMS, servletPath);
+		if(route.publishedBook == null) {
 			doNotPublishedBook(request, response, chain, semanticCMS, servletPath);
 		} else {
-			try {
-				doPublishedBook(
-					request,
-					response,
-					chain,
-					semanticCMS,
-					servletPath,
-					publishedBook,
-					Path.valueOf(servletPath.substring(publishedBook.bookRef.getPrefix().length()))
-				);
-			} catch(ValidationException e) {
-				throw new ServletException(e);
-			}
+			doPublishedBook(
+				request,
+				response,
+				chain,
+				semanticCMS,
+				servletPath,
+				route.publishedBook,
+				route.publishedPath
+			);
 		}
 	}
 
@@ -239,6 +522,9 @@ public class Controller implements Filter {
 	 * <b>Implementation Note:</b><br>
 	 * This default implementation calls {@link SemanticCMS#getLocalBook(java.lang.String)}
 	 * </p>
+	 * <p>
+	 * The result is cached per servlet path, so must depend only on the servlet path.
+	 * </p>
 	 */
 	protected Book getLocalBook(SemanticCMS semanticCMS, String servletPath) {
 		return semanticCMS.getLocalBook(servletPath);
@@ -254,23 +540,19 @@ public class Controller implements Filter {
 		SemanticCMS semanticCMS,
 		String servletPath
 	) throws IOException, ServletException {
-		Book localBook = getLocalBook(semanticCMS, servletPath);
-		if(localBook == null) {
+		LocalRoute localRoute = getLocalRoute(semanticCMS, servletPath);
+		if(localRoute.localBook == null) {
 			doNotPublishedBookAndNotLocalBook(request, response, chain, semanticCMS, servletPath);
 		} else {
-			try {
-				doNotPublishedBookAndLocalBook(
-					request,
-					response,
-					chain,
-					semanticCMS,
-					servletPath,
-					localBook,
-					Path.valueOf(servletPath.substring(localBook.bookRef.getPrefix().length()))
-				);
-			} catch(ValidationException e) {
-				throw new ServletException(e);
-			}
+			doNotPublishedBookAndLocalBook(
+				request,
+				response,
+				chain,
+				semanticCMS,
+				servletPath,
+				localRoute.localBook,
+				localRoute.localPath
+			);
 		}
 	}
 
@@ -430,25 +712,21 @@ public class Controller implements Filter {
 			if(isPublishedBookLocal(publishedBook)) {
 				doPassThrough(request, response, chain);
 			} else {
-				Book localBook = getLocalBook(semanticCMS, servletPath);
-				if(localBook == null) {
+				LocalRoute localRoute = getLocalRoute(semanticCMS, servletPath);
+				if(localRoute.localBook == null) {
 					doPublishedBookOtherMethodNoLocalBook(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath);
 				} else {
-					try {
-						doPublishedBookOtherMethodLocalBook(
-							request,
-							response,
-							chain,
-							semanticCMS,
-							servletPath,
-							publishedBook,
-							publishedPath,
-							localBook,
-							Path.valueOf(servletPath.substring(localBook.bookRef.getPrefix().length()))
-						);
-					} catch(ValidationException e) {
-						throw new ServletException(e);
-					}
+					doPublishedBookOtherMethodLocalBook(
+						request,
+						response,
+						chain,
+						semanticCMS,
+						servletPath,
+						publishedBook,
+						publishedPath,
+						localRoute.localBook,
+						localRoute.localPath
+					);
 				}
 			}
 		} else {
@@ -506,7 +784,14 @@ public class Controller implements Filter {
 		Book publishedBook,
 		Path publishedPath
 	) throws IOException, ServletException {
-		Tuple2<Renderer, Path> rendererAndPath = semanticCMS.getRendererAndPath(publishedPath);
+		Tuple2<Renderer, Path> rendererAndPath;
+		Route route = getRoute(semanticCMS, servletPath);
+		if(publishedBook.equals(route.publishedBook) && publishedPath.equals(route.publishedPath)) {
+			rendererAndPath = route.rendererAndPath;
+		} else {
+			// Called with a different book or path than routed
+			rendererAndPath = semanticCMS.getRendererAndPath(publishedPath);
+		}
 		if(rendererAndPath == null) {
 			doPublishedBookNoRenderer(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath);
 		} else {
@@ -538,6 +823,11 @@ public class Controller implements Filter {
 
 	/**
 	 * Called for HTTP requests that map onto a published book and the OPTIONS method.
+	 * <p>
+	 * <b>Implementation Note:</b><br>
+	 * This default implementation does not attempt to capture pages recently found to not exist.
+	 * Otherwise, only checks if the page {@link CapturePage#exists(javax.servlet.ServletContext, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, com.semanticcms.core.model.PageReferrer) exists}.
+	 * </p>
 	 */
 	protected void doPublishedBookOptions(
 		HttpServletRequest request,
@@ -550,17 +840,18 @@ public class Controller implements Filter {
 		Renderer renderer,
 		Path pagePath
 	) throws IOException, ServletException {
-		Page page = CapturePage.capturePage(
-			servletContext,
-			request,
-			response,
-			new PageRef(publishedBook.bookRef, pagePath),
-			CaptureLevel.PAGE
-		);
-		if(page == null) {
-			doPublishedBookOptionsNoPageFound(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath, renderer, pagePath);
+		PageRef pageRef = new PageRef(publishedBook.bookRef, pagePath);
+		boolean exists;
+		if(isPageNotFound(pageRef)) {
+			exists = false;
 		} else {
-			doPublishedBookOptionsPageFound(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath, renderer, page);
+			exists = CapturePage.exists(servletContext, request, response, pageRef);
+			if(!exists) setPageNotFound(pageRef);
+		}
+		if(exists) {
+			doPublishedBookOptionsPageFound(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath, renderer, pageRef);
+		} else {
+			doPublishedBookOptionsNoPageFound(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath, renderer, pagePath);
 		}
 	}
 
@@ -593,13 +884,23 @@ public class Controller implements Filter {
 		Book publishedBook,
 		Path publishedPath,
 		Renderer renderer,
-		Page page
+		PageRef pageRef
 	) throws IOException, ServletException {
 		doOptions(request, response);
 	}
 
 	/**
 	 * Called for HTTP requests that map onto a published book and the GET or HEAD methods.
+	 * <p>
+	 * <b>Implementation Note:</b><br>
+	 * This default implementation does not attempt to capture pages recently found to not exist,
+	 * going directly to {@link #doPublishedBookNoPageFound(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, javax.servlet.FilterChain, com.semanticcms.core.controller.SemanticCMS, java.lang.String, com.semanticcms.core.controller.Book, com.aoindustries.net.Path)}.
+	 * </p>
+	 * <p>
+	 * When coalescing is enabled, requests with the same {@link #getCoalesceKey(javax.servlet.http.HttpServletRequest, java.lang.String) coalesce key}
+	 * wait for the first to capture and render the page, then are sent its output.  A request renders the
+	 * page itself when the wait times out or the output may not be shared.
+	 * </p>
 	 */
 	protected void doPublishedBookGetHead(
 		HttpServletRequest request,
@@ -612,17 +913,67 @@ public class Controller implements Filter {
 		Renderer renderer,
 		Path pagePath
 	) throws IOException, ServletException {
-		Page page = CapturePage.capturePage(
-			servletContext,
-			request,
-			response,
-			new PageRef(publishedBook.bookRef, pagePath),
-			renderer.getCaptureLevel()
-		);
-		if(page == null) {
+		PageRef pageRef = new PageRef(publishedBook.bookRef, pagePath);
+		if(isPageNotFound(pageRef)) {
 			doPublishedBookNoPageFound(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath);
-		} else {
-			doRenderer(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath, renderer, page);
+			return;
+		}
+		String coalesceKey = getCoalesceKey(request, servletPath);
+		Flight flight = null;
+		if(coalesceKey != null) {
+			Flight created = new Flight();
+			Flight leader = flights.putIfAbsent(coalesceKey, created);
+			if(leader == null) {
+				flight = created;
+			} else {
+				RenderCache.Entry entry = leader.await(coalesceTimeoutMillis);
+				if(entry != null) {
+					String etag = entry.getETag();
+					if(etag != null) response.setHeader(ETags.ETAG_HEADER, etag);
+					entry.send(response);
+					return;
+				}
+				// The first request may have found no page
+				if(isPageNotFound(pageRef)) {
+					doPublishedBookNoPageFound(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath);
+					return;
+				}
+				// Render independently
+			}
+		}
+		RenderCache.Entry entry = null;
+		try {
+			Page page = CapturePage.capturePage(
+				servletContext,
+				request,
+				response,
+				pageRef,
+				renderer.getCaptureLevel()
+			);
+			if(page == null) {
+				setPageNotFound(pageRef);
+				doPublishedBookNoPageFound(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath);
+			} else if(flight == null) {
+				doRenderer(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath, renderer, page);
+			} else {
+				// Send the output as rendered, while also capturing it for the waiting requests
+				RenderCaptureResponse capture = new RenderCaptureResponse(response, RenderCaptureResponse.Mode.TEE);
+				doRenderer(request, capture, chain, semanticCMS, servletPath, publishedBook, publishedPath, renderer, page);
+				byte[] bytes = capture.toByteArray();
+				if(
+					!capture.isSent()
+					&& !request.isAsyncStarted()
+					// Sessions created during the render may have affected the output
+					&& request.getSession(false) == null
+				) {
+					entry = RenderCache.newEntry(capture.getHeader(ETags.ETAG_HEADER), capture, bytes);
+				}
+			}
+		} finally {
+			if(flight != null) {
+				flights.remove(coalesceKey, flight);
+				flight.complete(entry);
+			}
 		}
 	}
 
@@ -665,8 +1016,8 @@ public class Controller implements Filter {
 			doNotFound(request, response);
 		} else {
 			ResourceStore store = publishedBook.getResources();
-			Resource resource = store.getResource(publishedPath);
-			ResourceConnection resourceConn = resource.open();
+			ResourceConnection resourceConn = semanticCMS.openResource(store, publishedPath);
+			Resource resource = resourceConn.getResource();
 			try {
 				if(!resourceConn.exists()) {
 					resourceConn.close();
@@ -703,23 +1054,19 @@ public class Controller implements Filter {
 			if(isPublishedBookLocal(publishedBook)) {
 				doPublishedBookResourceNotExistsIsLocalBook(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath);
 			} else {
-				Book localBook = getLocalBook(semanticCMS, servletPath);
-				if(localBook != null) {
-					try {
-						doPublishedBookResourceNotExistsLocalBook(
-							request,
-							response,
-							chain,
-							semanticCMS,
-							servletPath,
-							publishedBook,
-							publishedPath,
-							localBook,
-							Path.valueOf(servletPath.substring(localBook.bookRef.getPrefix().length()))
-						);
-					} catch(ValidationException e) {
-						throw new ServletException(e);
-					}
+				LocalRoute localRoute = getLocalRoute(semanticCMS, servletPath);
+				if(localRoute.localBook != null) {
+					doPublishedBookResourceNotExistsLocalBook(
+						request,
+						response,
+						chain,
+						semanticCMS,
+						servletPath,
+						publishedBook,
+						publishedPath,
+						localRoute.localBook,
+						localRoute.localPath
+					);
 				} else {
 					doPublishedBookResourceNotExistsNoLocalBook(request, response, chain, semanticCMS, servletPath, publishedBook, publishedPath, resource);
 				}
@@ -813,5 +1160,7 @@ public class Controller implements Filter {
 	@Override
 	public void destroy() {
 		servletContext = null;
+		routeCache.set(null);
+		pageNotFound.clear();
 	}
 }
@@ -0,0 +1,122 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import java.util.Base64;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Entity tag generation and conditional request evaluation.
+ *
+ * @see  <a href="https://tools.ietf.org/html/rfc7232">RFC 7232: Conditional Requests</a>
+ */
+final class ETags {
+
+	/** Make no instances. */
+	private ETags() {throw new AssertionError();}
+
+	static final String ETAG_HEADER = "ETag";
+	static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+	private static final String WEAK_PREFIX = "W/";
+
+	/**
+	 * Creates a strong entity tag from a digest.
+	 */
+	static String toStrongETag(byte[] digest) {
+		return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + '"';
+	}
+
+	/**
+	 * Creates a weak entity tag from a digest.
+	 */
+	static String toWeakETag(byte[] digest) {
+		return WEAK_PREFIX + toStrongETag(digest);
+	}
+
+	/**
+	 * Checks if an entity tag is weak.
+	 */
+	static boolean isWeak(String etag) {
+		return etag.startsWith(WEAK_PREFIX);
+	}
+
+	/**
+	 * Checks if a list of entity tags, as found in the <code>If-None-Match</code> and <code>If-Match</code>
+	 * headers, contains the given entity tag.
+	 *
+	 * @param  etag  An entity tag, including its quotes and any weak indicator
+	 *
+	 * @param  weak  When {@code true}, uses the weak comparison function, which ignores the weak indicator.
+	 *               Otherwise, uses the strong comparison function, where weak entity tags never match.
+	 */
+	static boolean matches(String header, String etag, boolean weak) {
+		if(header == null) return false;
+		if(isWeak(etag)) {
+			if(!weak) return false;
+			etag = etag.substring(WEAK_PREFIX.length());
+		}
+		int len = header.length();
+		int pos = 0;
+		while(pos < len) {
+			// Skip whitespace and commas between entity tags
+			char ch = header.charAt(pos);
+			if(ch == ',' || ch == ' ' || ch == '\t') {
+				pos++;
+				continue;
+			}
+			if(ch == '*') return true;
+			boolean isWeak = header.startsWith(WEAK_PREFIX, pos);
+			int start = isWeak ? pos + WEAK_PREFIX.length() : pos;
+			if(start >= len || header.charAt(start) != '"') {
+				// Malformed: skip to next comma
+				int comma = header.indexOf(',', pos);
+				if(comma == -1) return false;
+				pos = comma + 1;
+				continue;
+			}
+			int end = header.indexOf('"', start + 1);
+			if(end == -1) return false;
+			end++;
+			if(
+				(weak || !isWeak)
+				&& (end - start) == etag.length()
+				&& header.regionMatches(start, etag, 0, etag.length())
+			) {
+				return true;
+			}
+			pos = end;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the request has an <code>If-None-Match</code> header that matches
+	 * the given entity tag, using the weak comparison function.
+	 * A {@link javax.servlet.http.HttpServletResponse#SC_NOT_MODIFIED} response
+	 * is appropriate for GET and HEAD requests when matched.
+	 */
+	static boolean isNoneMatchFailed(HttpServletRequest request, String etag) {
+		return matches(request.getHeader(IF_NONE_MATCH_HEADER), etag, true);
+	}
+}
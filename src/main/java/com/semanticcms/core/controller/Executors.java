@@ -37,6 +37,7 @@ import java.util.concurrent.Callable;
  *   <li>Internationalization context (via parent class): {@link I18nThreadLocalCallable} and {@link I18nThreadLocalRunnable}</li>
  *   <li>FunctionContext: {@link FunctionContextCallable} and {@link FunctionContextRunnable}</li>
  *   <li>PageContext: {@link PageContextCallable} and {@link PageContextRunnable}</li>
+ *   <li>Captures in progress, to avoid waiting on a capture that is itself waiting for the task</li>
  * </ul>
  */
 public class Executors extends com.aoindustries.concurrent.Executors {
@@ -51,7 +52,7 @@ public class Executors extends com.aoindustries.concurrent.Executors {
 	protected <T> Callable<T> wrap(Callable<T> task) {
 		return new PageContextCallable<>(
 			new FunctionContextCallable<>(
-				super.wrap(task)
+				CaptureFlights.wrap(super.wrap(task))
 			)
 		);
 	}
@@ -60,7 +61,7 @@ public class Executors extends com.aoindustries.concurrent.Executors {
 	protected Runnable wrap(Runnable task) {
 		return new PageContextRunnable(
 			new FunctionContextRunnable(
-				super.wrap(task)
+				CaptureFlights.wrap(super.wrap(task))
 			)
 		);
 	}
@@ -0,0 +1,59 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Request headers understood by SemanticCMS.
+ */
+final public class Headers {
+
+	/**
+	 * The request header that indicates the request is part of an export, such
+	 * as crawling a whole site for static export.  Set to "true" to enable.
+	 * <p>
+	 * Exporting requests that also send the {@link #EXPORTING_SECRET_HEADER} share a cache of
+	 * captured pages between requests.  See {@link CacheFilter}.
+	 * </p>
+	 */
+	public static final String EXPORTING_HEADER = "X-com-semanticcms-core-exporting";
+
+	/**
+	 * The request header that an exporting request sends with the secret configured by the
+	 * <code>com.semanticcms.core.controller.SemanticCMS.exportCache.secret</code> context parameter,
+	 * trusting the request to share the export cache with other exporting requests.
+	 */
+	public static final String EXPORTING_SECRET_HEADER = "X-com-semanticcms-core-exporting-secret";
+
+	/**
+	 * Checks if the request is part of an export.
+	 *
+	 * @see  #EXPORTING_HEADER
+	 */
+	public static boolean isExporting(HttpServletRequest request) {
+		return Boolean.parseBoolean(request.getHeader(EXPORTING_HEADER));
+	}
+
+	private Headers() {}
+}
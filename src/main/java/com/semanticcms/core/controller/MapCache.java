@@ -27,10 +27,14 @@ import com.semanticcms.core.model.Page;
 import com.semanticcms.core.model.PageRef;
 import com.semanticcms.core.model.ParentRef;
 import com.semanticcms.core.pages.CaptureLevel;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.servlet.ServletException;
 
 /**
@@ -40,7 +44,54 @@ abstract class MapCache extends Cache {
 
 	protected final SemanticCMS semanticCMS;
 
-	private final Map<CaptureKey, CaptureResult> pageCache;
+	/**
+	 * The optional shared cache that is consulted on a miss and updated on
+	 * each new capture, {@code null} when not used.
+	 */
+	private final SharedCache sharedCache;
+
+	/**
+	 * The captures in progress, used to coalesce concurrent captures of the same key,
+	 * {@code null} when captures are not coalesced.
+	 */
+	private final CaptureFlights flights;
+
+	/**
+	 * The captures of one page, indexed by level.  Only PAGE and META levels are cached.
+	 * This allows lookups and inserts without allocating a {@link CaptureKey}, and the
+	 * fallback from PAGE to META is within the same entry.
+	 */
+	static class LevelCaptures {
+
+		private static final int PAGE_INDEX = 0;
+		private static final int META_INDEX = 1;
+
+		private static int getIndex(CaptureLevel level) {
+			if(level == CaptureLevel.PAGE) return PAGE_INDEX;
+			assert level == CaptureLevel.META : "Body captures are not cached";
+			return META_INDEX;
+		}
+
+		private final AtomicReferenceArray<CaptureResult> results = new AtomicReferenceArray<>(2);
+
+		/**
+		 * A lookup of level PAGE will also perform a lookup of META if not found.
+		 */
+		private CaptureResult get(CaptureLevel level) {
+			int index = getIndex(level);
+			CaptureResult result = results.get(index);
+			if(result == null && index == PAGE_INDEX) {
+				// Look for meta in place of page
+				result = results.get(META_INDEX);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The captured pages, one entry per page.
+	 */
+	private final Map<PageRef, LevelCaptures> pageCache;
 
 	/**
 	 * Tracks which parent pages are still not verified.
@@ -67,28 +118,152 @@ abstract class MapCache extends Cache {
 
 	MapCache(
 		SemanticCMS semanticCMS,
-		Map<CaptureKey, CaptureResult> pageCache,
+		SharedCache sharedCache,
+		CaptureFlights flights,
+		Map<PageRef, LevelCaptures> pageCache,
 		Map<PageRef, Set<PageRef>> unverifiedParentsByPageRef,
 		Map<PageRef, Set<PageRef>> unverifiedChildrenByPageRef,
 		Map<String, Object> attributes
 	) {
 		this.semanticCMS = semanticCMS;
+		this.sharedCache = sharedCache;
+		this.flights = flights;
 		this.pageCache = pageCache;
 		this.unverifiedParentsByPageRef = unverifiedParentsByPageRef;
 		this.unverifiedChildrenByPageRef = unverifiedChildrenByPageRef;
 		this.attributes = attributes;
 	}
 
+	/**
+	 * Creates a new map, in access order, that evicts the least recently used entry
+	 * once the given size is exceeded.  This map is not thread safe.
+	 */
+	static <K, V> Map<K, V> newLruMap(int maxSize) {
+		return newLruMap(maxSize, null);
+	}
+
+	/**
+	 * Creates a new map, in access order, that evicts the least recently used entry
+	 * once the given size is exceeded.  This map is not thread safe.
+	 *
+	 * @param  evicted  Called for each evicted entry, if not {@code null}
+	 */
+	static <K, V> Map<K, V> newLruMap(final int maxSize, final BiConsumer<? super K, ? super V> evicted) {
+		return new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if(size() > maxSize) {
+					if(evicted != null) evicted.accept(eldest.getKey(), eldest.getValue());
+					return true;
+				} else {
+					return false;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Creates a new page cache, in access order, that evicts the least recently used page
+	 * once the given number of pages is exceeded.  This map is not thread safe.
+	 * Evictions are counted in {@link SemanticCMS#getCacheStats()}.
+	 */
+	static Map<PageRef, LevelCaptures> newLruPageCache(final SemanticCMS semanticCMS, int maxSize) {
+		return newLruMap(
+			maxSize,
+			(PageRef pageRef, LevelCaptures captures) -> {
+				CacheStats cacheStats = semanticCMS.getCacheStats();
+				if(captures.results.get(LevelCaptures.PAGE_INDEX) != null) cacheStats.getLevelStats(CaptureLevel.PAGE).evictions.increment();
+				if(captures.results.get(LevelCaptures.META_INDEX) != null) cacheStats.getLevelStats(CaptureLevel.META).evictions.increment();
+			}
+		);
+	}
+
+	/**
+	 * Gets the captures in progress for a cache that may be accessed concurrently.
+	 * These are shared with the shared cache, when used, to coalesce captures between requests.
+	 */
+	static CaptureFlights getFlights(SharedCache sharedCache) {
+		return sharedCache == null ? new CaptureFlights() : sharedCache.flights;
+	}
+
+	/**
+	 * Looks only in this cache, without consulting any shared cache.
+	 * A lookup of level PAGE will also perform a lookup of META if not found.
+	 */
+	CaptureResult getLocal(PageRef pageRef, CaptureLevel level) {
+		LevelCaptures captures = pageCache.get(pageRef);
+		return captures == null ? null : captures.get(level);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When not found in this cache, the shared cache is consulted.  Any capture found
+	 * in the shared cache is added to this cache, including parent-child verifications,
+	 * as though it had been captured within this request.
+	 * </p>
+	 */
 	@Override
-	CaptureResult get(CaptureKey key) {
-		CaptureResult result = pageCache.get(key);
-		if(result == null && key.level == CaptureLevel.PAGE) {
-			// Look for meta in place of page
-			result = pageCache.get(new CaptureKey(key.pageRef, CaptureLevel.META));
+	CaptureResult get(PageRef pageRef, CaptureLevel level) throws ServletException {
+		CacheStats.LevelStats levelStats = semanticCMS.getCacheStats().getLevelStats(level);
+		CaptureResult result = getLocal(pageRef, level);
+		if(result != null) {
+			levelStats.hits.increment();
+			if(result.page == null) levelStats.negativeHits.increment();
+		} else {
+			if(sharedCache != null) {
+				result = sharedCache.get(new CaptureKey(pageRef, level));
+				if(result != null) {
+					levelStats.sharedHits.increment();
+					putLocal(pageRef, level, result.page);
+				}
+			}
+			if(result == null) levelStats.misses.increment();
 		}
 		return result;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Captures coalesced from another request are also added to this cache, without
+	 * updating the shared cache, which was already updated by the request that
+	 * performed the capture.
+	 * </p>
+	 * <p>
+	 * The caller has already looked up the cache, so the lookups here are not counted
+	 * in the {@link CacheStats}.
+	 * </p>
+	 */
+	@Override
+	Page capture(CaptureKey key, Capturer capturer) throws ServletException, IOException {
+		if(flights == null) return super.capture(key, capturer);
+		boolean[] performed = new boolean[1];
+		Page page = flights.capture(
+			key,
+			() -> {
+				performed[0] = true;
+				// Check again, in case a capture of the same key completed just before this one started
+				CaptureResult result = getLocal(key.pageRef, key.level);
+				if(result != null) return result.page;
+				if(sharedCache != null) {
+					result = sharedCache.get(key);
+					if(result != null) {
+						putLocal(key.pageRef, key.level, result.page);
+						return result.page;
+					}
+				}
+				Page captured = capturer.capture();
+				put(key, captured);
+				return captured;
+			}
+		);
+		// Add captures from flights of other requests
+		if(!performed[0] && getLocal(key.pageRef, key.level) == null) putLocal(key.pageRef, key.level, page);
+		return page;
+	}
+
 	private static void addToSet(Map<PageRef, Set<PageRef>> map, PageRef key, PageRef pageRef) {
 		Set<PageRef> pageRefs = map.get(key);
 		if(pageRefs == null) {
@@ -104,21 +279,66 @@ abstract class MapCache extends Cache {
 
 	@Override
 	void put(CaptureKey key, Page page) throws ServletException {
+		semanticCMS.getCacheStats().getLevelStats(key.level).puts.increment();
+		putLocal(key.pageRef, key.level, page);
+		if(sharedCache != null) sharedCache.put(key, page);
+	}
+
+	/**
+	 * Adds to this cache only, without updating any shared cache.
+	 */
+	private void putLocal(PageRef pageRef, CaptureLevel level, Page page) throws ServletException {
+		LevelCaptures captures = pageCache.get(pageRef);
+		if(captures == null) {
+			captures = new LevelCaptures();
+			LevelCaptures existing = pageCache.putIfAbsent(pageRef, captures);
+			if(existing != null) captures = existing;
+		}
+		int index = LevelCaptures.getIndex(level);
 		// Check if found in other level, this is used to avoid verifying twice
-		CaptureResult otherLevelResult = page == null ? null : pageCache.get(
-			new CaptureKey(key.pageRef, key.level==CaptureLevel.PAGE ? CaptureLevel.META : CaptureLevel.PAGE)
+		CaptureResult otherLevelResult = page == null ? null : captures.results.get(
+			index == LevelCaptures.PAGE_INDEX ? LevelCaptures.META_INDEX : LevelCaptures.PAGE_INDEX
 		);
 		// Add to cache, verify if this page not yet put into cache
-		if(pageCache.put(key, CaptureResult.of(page)) == null) {
+		if(captures.results.getAndSet(index, CaptureResult.of(page)) == null) {
 			// Was added, now avoid verifying twice typically.
 			// In the race condition where both levels check null then are added concurrently, this will verify twice
 			// rather than verify none.
 			if(VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS) {
-				if(otherLevelResult == null) verifyAdded(page);
+				if(otherLevelResult == null) {
+					BackgroundVerifier backgroundVerifier = semanticCMS.getBackgroundVerifier();
+					if(backgroundVerifier != null) backgroundVerifier.submit(page);
+					else {
+						long startNanos = System.nanoTime();
+						verifyAdded(page);
+						semanticCMS.getCacheStats().verified(System.nanoTime() - startNanos);
+					}
+				}
 			}
 		}
 	}
 
+	/**
+	 * Gets the cached page related to a page being added, or when the related page is not yet cached,
+	 * registers the page being added as unverified until the related page is added.
+	 * The shared cache is not consulted, to limit verification to this cache.
+	 *
+	 * @param  unverifiedByPageRef  Either {@link #unverifiedParentsByPageRef} or {@link #unverifiedChildrenByPageRef}
+	 * @param  relatedPageRef  The parent or child of the page being added
+	 * @param  pageRef  The page being added
+	 *
+	 * @return  The cached related page or {@code null} when registered as unverified
+	 */
+	Page getOrAddUnverified(Map<PageRef, Set<PageRef>> unverifiedByPageRef, PageRef relatedPageRef, PageRef pageRef) {
+		CaptureResult relatedResult = getLocal(relatedPageRef, CaptureLevel.PAGE);
+		if(relatedResult != null && relatedResult.page != null) {
+			return relatedResult.page;
+		} else {
+			addToSet(unverifiedByPageRef, relatedPageRef, pageRef);
+			return null;
+		}
+	}
+
 	protected void verifyAdded(Page page) throws ServletException {
 		assert VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS;
 		final PageRef pageRef = page.getPageRef();
@@ -132,11 +352,9 @@ abstract class MapCache extends Cache {
 				// Can't verify parent reference to missing book
 				if(semanticCMS.getBook(parentPageRef.getBookRef()).isAccessible()) {
 					// Check if parent in cache
-					CaptureResult parentResult = get(parentPageRef, CaptureLevel.PAGE);
-					if(parentResult != null && parentResult.page != null) {
-						PageUtils.verifyChildToParent(pageRef, parentPageRef, parentResult.page.getChildRefs());
-					} else {
-						addToSet(unverifiedParentsByPageRef, parentPageRef, pageRef);
+					Page parentPage = getOrAddUnverified(unverifiedParentsByPageRef, parentPageRef, pageRef);
+					if(parentPage != null) {
+						PageUtils.verifyChildToParent(pageRef, parentPageRef, parentPage.getChildRefs());
 					}
 				}
 			}
@@ -149,11 +367,9 @@ abstract class MapCache extends Cache {
 				// Can't verify child reference to missing book
 				if(semanticCMS.getBook(childPageRef.getBookRef()).isAccessible()) {
 					// Check if child in cache
-					CaptureResult childResult = get(childPageRef, CaptureLevel.PAGE);
-					if(childResult != null && childResult.page != null) {
-						PageUtils.verifyParentToChild(pageRef, childPageRef, childResult.page.getParentRefs());
-					} else {
-						addToSet(unverifiedChildrenByPageRef, childPageRef, pageRef);
+					Page childPage = getOrAddUnverified(unverifiedChildrenByPageRef, childPageRef, pageRef);
+					if(childPage != null) {
+						PageUtils.verifyParentToChild(pageRef, childPageRef, childPage.getParentRefs());
 					}
 				}
 			}
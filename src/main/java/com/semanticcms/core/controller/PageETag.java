@@ -0,0 +1,144 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.ChildRef;
+import com.semanticcms.core.model.Copyright;
+import com.semanticcms.core.model.Element;
+import com.semanticcms.core.model.Page;
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.model.ParentRef;
+import com.semanticcms.core.renderer.Renderer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import org.joda.time.ReadableDateTime;
+
+/**
+ * Generates entity tags for rendered pages from a fingerprint of the captured
+ * {@link Page} and its {@link Renderer}, without rendering the page.
+ * <p>
+ * The fingerprint includes the page's reference, titles, modification date, robots setting,
+ * copyright, elements, and parent and child references, along with the renderer type.
+ * It also includes a random generation chosen once per deployment, so all entity tags
+ * change when the application is redeployed or restarted.
+ * </p>
+ * <p>
+ * The page body is covered by the last modified time of the page source, along with those of its
+ * parents and children, from {@link SemanticCMS#getPageSourceLastModified(com.semanticcms.core.model.PageRef)}.
+ * </p>
+ * <p>
+ * The fingerprint does not cover everything that affects the output, such as the titles of linked pages,
+ * included files, or the theme and views.  The entity tags are therefore weak, and include the current
+ * interval of {@link SemanticCMS#getRenderCacheTtl()}, so an entity tag is valid no longer than a
+ * rendered page is cached.
+ * </p>
+ */
+final class PageETag {
+
+	/** Make no instances. */
+	private PageETag() {throw new AssertionError();}
+
+	private static final String ALGORITHM = "SHA-256";
+
+	/**
+	 * The number of bytes of the digest used in the entity tag.
+	 */
+	private static final int ETAG_BYTES = 16;
+
+	private static final byte[] generation = new byte[ETAG_BYTES];
+	static {
+		new SecureRandom().nextBytes(generation);
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		if(value != null) digest.update(value.getBytes(StandardCharsets.UTF_8));
+		// Separator, distinguishes null from empty
+		digest.update(value == null ? (byte)1 : (byte)0);
+	}
+
+	private static void update(MessageDigest digest, long value) {
+		for(int shift = 56; shift >= 0; shift -= 8) {
+			digest.update((byte)(value >>> shift));
+		}
+	}
+
+	private static void update(MessageDigest digest, PageRef pageRef) {
+		update(digest, pageRef.getBookRef().getDomain().toString());
+		update(digest, pageRef.getBookRef().getPath().toString());
+		update(digest, pageRef.getPath().toString());
+	}
+
+	/**
+	 * Gets the weak entity tag for the given page as rendered by the given renderer.
+	 */
+	static String getETag(SemanticCMS semanticCMS, Renderer renderer, Page page) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(ALGORITHM);
+		} catch(NoSuchAlgorithmException e) {
+			throw new AssertionError(ALGORITHM + " is required on all Java platforms", e);
+		}
+		digest.update(generation);
+		update(digest, renderer.getClass().getName());
+		update(digest, renderer.getCaptureLevel().name());
+		PageRef pageRef = page.getPageRef();
+		update(digest, pageRef);
+		update(digest, System.currentTimeMillis() / semanticCMS.getRenderCacheTtl());
+		update(digest, semanticCMS.getPageSourceLastModified(pageRef));
+		update(digest, page.getTitle());
+		update(digest, page.getShortTitle());
+		ReadableDateTime dateModified = page.getDateModified();
+		update(digest, dateModified == null ? Long.MIN_VALUE : dateModified.getMillis());
+		Boolean allowRobots = page.getAllowRobots();
+		update(digest, allowRobots == null ? null : allowRobots.toString());
+		Copyright copyright = page.getCopyright();
+		if(copyright == null) {
+			update(digest, (String)null);
+		} else {
+			update(digest, copyright.getRightsHolder());
+			update(digest, copyright.getRights());
+			update(digest, copyright.getDateCopyrighted());
+		}
+		for(ParentRef parentRef : page.getParentRefs()) {
+			PageRef parentPageRef = parentRef.getPageRef();
+			update(digest, parentPageRef);
+			update(digest, semanticCMS.getPageSourceLastModified(parentPageRef));
+			update(digest, parentRef.getShortTitle());
+		}
+		// Separates parents from children
+		update(digest, (String)null);
+		for(ChildRef childRef : page.getChildRefs()) {
+			PageRef childPageRef = childRef.getPageRef();
+			update(digest, childPageRef);
+			update(digest, semanticCMS.getPageSourceLastModified(childPageRef));
+		}
+		update(digest, (String)null);
+		for(Element element : page.getElements()) {
+			update(digest, element.getClass().getName());
+		}
+		return ETags.toWeakETag(Arrays.copyOf(digest.digest(), ETAG_BYTES));
+	}
+}
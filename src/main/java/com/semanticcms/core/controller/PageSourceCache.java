@@ -0,0 +1,109 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.model.ResourceRef;
+import com.semanticcms.core.resources.ResourceConnection;
+import com.semanticcms.core.resources.ResourceStore;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the last modified times of page sources, found through
+ * {@link Book#getPageSource(com.semanticcms.core.model.PageRef)}, so the sources
+ * are not accessed on every lookup.
+ * <p>
+ * Each time is trusted for the revalidation interval, after which the source is
+ * opened again.
+ * </p>
+ */
+final class PageSourceCache {
+
+	/**
+	 * The maximum number of pages with cached times.  When full, the cache is cleared.
+	 */
+	private static final int MAX_ENTRIES = 10000;
+
+	private static class Entry {
+
+		private final long lastModified;
+
+		/**
+		 * The {@link System#nanoTime()} when read from the source.
+		 */
+		private final long validated;
+
+		private Entry(long lastModified, long validated) {
+			this.lastModified = lastModified;
+			this.validated = validated;
+		}
+	}
+
+	private final SemanticCMS semanticCMS;
+	private final long revalidateIntervalNanos;
+
+	private final ConcurrentMap<PageRef, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * @param  revalidateIntervalMillis  The number of milliseconds a time is trusted without accessing the source,
+	 *                                   {@code 0} to always access the source
+	 */
+	PageSourceCache(SemanticCMS semanticCMS, long revalidateIntervalMillis) {
+		this.semanticCMS = semanticCMS;
+		this.revalidateIntervalNanos = revalidateIntervalMillis * 1000000;
+	}
+
+	/**
+	 * Gets the last modified time of the source of the given page.
+	 *
+	 * @return  The last modified time or {@code 0} when unknown
+	 */
+	long getLastModified(PageRef pageRef) {
+		if(revalidateIntervalNanos <= 0) return readLastModified(pageRef);
+		long now = System.nanoTime();
+		Entry entry = entries.get(pageRef);
+		if(entry != null && (now - entry.validated) < revalidateIntervalNanos) return entry.lastModified;
+		long lastModified = readLastModified(pageRef);
+		if(entries.size() >= MAX_ENTRIES) entries.clear();
+		entries.put(pageRef, new Entry(lastModified, now));
+		return lastModified;
+	}
+
+	private long readLastModified(PageRef pageRef) {
+		try {
+			ResourceRef sourceRef = semanticCMS.getBook(pageRef.getBookRef()).getPageSource(pageRef);
+			if(sourceRef == null) return 0;
+			ResourceStore store = semanticCMS.getBook(sourceRef.getBookRef()).getResources();
+			if(store == null) return 0;
+			try (ResourceConnection conn = store.getResource(sourceRef.getPath()).open()) {
+				return conn.exists() ? conn.getLastModified() : 0;
+			}
+		} catch(IOException | NoSuchElementException e) {
+			// Unknown source
+			return 0;
+		}
+	}
+}
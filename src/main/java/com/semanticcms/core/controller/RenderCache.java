@@ -0,0 +1,325 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.renderer.Renderer;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An application-scope cache of rendered pages, holding the encoded output along with its
+ * content type and headers.
+ * <p>
+ * Each entry is valid for the entity tag it was rendered with, which fingerprints the captured page
+ * and its dependencies, such as its parents and children.  Entries are also limited by a time-to-live,
+ * since the entity tag does not detect all content changes.  Pages with an unknown source last modified
+ * time are not cached, since in-place edits may not change their entity tag.
+ * </p>
+ * <p>
+ * When a maximum staleness is configured, an entry that is expired or rendered with a different entity
+ * tag may still be served while it is refreshed, until it is older than its time-to-live plus the
+ * maximum staleness.
+ * </p>
+ * <p>
+ * Entries are evicted least-recently-used first once the total length of the rendered output
+ * exceeds the maximum size.
+ * </p>
+ *
+ * @see  RendererServlet#getETag(com.semanticcms.core.renderer.Renderer, com.semanticcms.core.model.Page)
+ * @see  RendererServlet#getRenderCacheVariant(javax.servlet.http.HttpServletRequest)
+ */
+final class RenderCache {
+
+	/**
+	 * Renders larger than this fraction of the maximum size are not cached.
+	 */
+	private static final int MAX_ENTRY_FRACTION = 8;
+
+	private static final String CONTENT_TYPE_HEADER = "Content-Type";
+	private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+
+	static final class Key {
+
+		private final PageRef pageRef;
+		private final Renderer renderer;
+		private final String variant;
+
+		Key(PageRef pageRef, Renderer renderer, String variant) {
+			this.pageRef = pageRef;
+			this.renderer = renderer;
+			this.variant = variant;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) return false;
+			Key other = (Key)obj;
+			return
+				pageRef.equals(other.pageRef)
+				&& renderer.equals(other.renderer)
+				&& variant.equals(other.variant)
+			;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(pageRef, renderer, variant);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + pageRef + ", " + renderer + ", " + variant + ')';
+		}
+	}
+
+	static final class Entry {
+
+		private final String etag;
+		private final long created;
+		private final String contentType;
+
+		/**
+		 * The headers set during the render, each name followed by its values.
+		 */
+		private final List<Map.Entry<String, List<String>>> headers;
+
+		private final byte[] bytes;
+
+		private Entry(String etag, long created, String contentType, List<Map.Entry<String, List<String>>> headers, byte[] bytes) {
+			this.etag = etag;
+			this.created = created;
+			this.contentType = contentType;
+			this.headers = headers;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Gets the entity tag the output was rendered with, if any.
+		 */
+		String getETag() {
+			return etag;
+		}
+
+		/**
+		 * Gets the exact length of the rendered output.
+		 */
+		int getLength() {
+			return bytes.length;
+		}
+
+		/**
+		 * Sets the headers of the render, including exact content length.
+		 */
+		void setHeaders(HttpServletResponse response) {
+			if(contentType != null) response.setContentType(contentType);
+			for(Map.Entry<String, List<String>> header : headers) {
+				String name = header.getKey();
+				boolean first = true;
+				for(String value : header.getValue()) {
+					if(first) {
+						response.setHeader(name, value);
+						first = false;
+					} else {
+						response.addHeader(name, value);
+					}
+				}
+			}
+			response.setContentLength(bytes.length);
+		}
+
+		/**
+		 * Sends the rendered output, with its headers.
+		 */
+		void send(HttpServletResponse response) throws IOException {
+			setHeaders(response);
+			response.getOutputStream().write(bytes);
+		}
+	}
+
+	private final long maxSize;
+	private final long ttlNanos;
+	private final long maxStaleNanos;
+
+	/**
+	 * Access-ordered, guarded by itself.
+	 */
+	private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The total length of all cached output, guarded by {@link #entries}.
+	 */
+	private long totalSize;
+
+	/**
+	 * The keys currently being refreshed, guarded by {@link #entries}.
+	 */
+	private final Set<Key> refreshing = new HashSet<>();
+
+	/**
+	 * @param  maxSize         The maximum total length of the cached output
+	 * @param  ttlMillis       The number of milliseconds an entry is valid
+	 * @param  maxStaleMillis  The number of milliseconds past its time-to-live an entry may be served
+	 *                         while it is refreshed, {@code 0} to never serve stale entries
+	 */
+	RenderCache(long maxSize, long ttlMillis, long maxStaleMillis) {
+		this.maxSize = maxSize;
+		this.ttlNanos = ttlMillis * 1000000;
+		this.maxStaleNanos = maxStaleMillis * 1000000;
+	}
+
+	/**
+	 * Gets the cached render for the given entity tag.
+	 *
+	 * @return  The entry or {@code null} when not cached, rendered with a different entity tag, or expired
+	 */
+	Entry get(Key key, String etag) {
+		synchronized(entries) {
+			Entry entry = entries.get(key);
+			if(entry == null) return null;
+			long age = System.nanoTime() - entry.created;
+			if(age >= (ttlNanos + maxStaleNanos)) {
+				entries.remove(key);
+				totalSize -= entry.bytes.length;
+				return null;
+			}
+			if(!entry.etag.equals(etag) || age >= ttlNanos) {
+				// Kept to be served stale while refreshed
+				return null;
+			}
+			return entry;
+		}
+	}
+
+	/**
+	 * Gets a cached render that may be served while it is refreshed, regardless of its entity tag.
+	 * This is called once {@link #get(com.semanticcms.core.controller.RenderCache.Key, java.lang.String)}
+	 * has found no valid entry.
+	 *
+	 * @return  The entry or {@code null} when not cached, older than its time-to-live plus the maximum staleness,
+	 *          or stale entries are not served
+	 */
+	Entry getStale(Key key) {
+		if(maxStaleNanos == 0) return null;
+		synchronized(entries) {
+			Entry entry = entries.get(key);
+			if(entry == null) return null;
+			if((System.nanoTime() - entry.created) >= (ttlNanos + maxStaleNanos)) {
+				entries.remove(key);
+				totalSize -= entry.bytes.length;
+				return null;
+			}
+			return entry;
+		}
+	}
+
+	/**
+	 * Claims the refresh of the given key, so only one request re-renders a stale entry.
+	 * Must be followed by {@link #endRefresh(com.semanticcms.core.controller.RenderCache.Key)}
+	 * when claimed.
+	 *
+	 * @return  {@code true} when claimed or {@code false} when already being refreshed
+	 */
+	boolean startRefresh(Key key) {
+		synchronized(entries) {
+			return refreshing.add(key);
+		}
+	}
+
+	void endRefresh(Key key) {
+		synchronized(entries) {
+			refreshing.remove(key);
+		}
+	}
+
+	/**
+	 * Creates and caches an entry from a captured render, when cacheable.
+	 *
+	 * @param  response  The response the render was captured from, with the headers set during the render
+	 *
+	 * @return  The entry or {@code null} when not cacheable
+	 */
+	Entry put(Key key, String etag, RenderCaptureResponse response, byte[] bytes) {
+		if(bytes.length > (maxSize / MAX_ENTRY_FRACTION)) return null;
+		Entry entry = newEntry(etag, response, bytes);
+		if(entry == null) return null;
+		synchronized(entries) {
+			Entry old = entries.put(key, entry);
+			if(old != null) totalSize -= old.bytes.length;
+			totalSize += bytes.length;
+			// Evict least-recently-used, never the new entry
+			Iterator<Entry> iter = entries.values().iterator();
+			while(totalSize > maxSize && iter.hasNext()) {
+				Entry eldest = iter.next();
+				if(eldest != entry) {
+					iter.remove();
+					totalSize -= eldest.bytes.length;
+				}
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Creates an entry from a captured render, without caching it.
+	 *
+	 * @param  etag      The entity tag the output was rendered with, if any
+	 * @param  response  The response the render was captured from, with the headers set during the render
+	 *
+	 * @return  The entry or {@code null} when not cacheable
+	 */
+	static Entry newEntry(String etag, RenderCaptureResponse response, byte[] bytes) {
+		if(!response.isCacheable()) return null;
+		List<Map.Entry<String, List<String>>> headers = new ArrayList<>();
+		for(Map.Entry<String, List<String>> header : response.getRecordedHeaders().entrySet()) {
+			String name = header.getKey();
+			if(
+				!CONTENT_TYPE_HEADER.equalsIgnoreCase(name)
+				&& !CONTENT_LENGTH_HEADER.equalsIgnoreCase(name)
+				&& !ETags.ETAG_HEADER.equalsIgnoreCase(name)
+			) {
+				List<String> values = header.getValue();
+				if(!values.isEmpty()) {
+					headers.add(new AbstractMap.SimpleImmutableEntry<>(name, Collections.unmodifiableList(new ArrayList<>(values))));
+				}
+			}
+		}
+		return new Entry(
+			etag,
+			System.nanoTime(),
+			response.getContentType(),
+			Collections.unmodifiableList(headers),
+			bytes
+		);
+	}
+}
@@ -0,0 +1,416 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Captures the output of a page render into memory, so it may be stored in the {@link RenderCache}.
+ * The headers set during the render are recorded to be replayed on cache hits.  The content length
+ * and committing the response are deferred until the output is sent.
+ *
+ * @see  Mode
+ */
+class RenderCaptureResponse extends HttpServletResponseWrapper {
+
+	/**
+	 * What is passed through to the wrapped response.
+	 */
+	enum Mode {
+		/**
+		 * Headers and status are passed through, while the output is captured to be sent later.
+		 */
+		CAPTURE,
+
+		/**
+		 * Nothing is passed through, such as when refreshing the cache after the response
+		 * has already been sent.
+		 */
+		DETACHED,
+
+		/**
+		 * Headers, status, and output are all passed through, with the output also captured.
+		 */
+		TEE
+	}
+
+	private static final String SET_COOKIE_HEADER = "Set-Cookie";
+	private static final String CACHE_CONTROL_HEADER = "Cache-Control";
+	private static final String CHARSET_PARAM = "charset=";
+	private static final String DEFAULT_CHARACTER_ENCODING = "ISO-8859-1";
+
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	private final Mode mode;
+	private final boolean detached;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+	private ServletOutputStream outputStream;
+	private PrintWriter writer;
+
+	/**
+	 * The headers set during the render.
+	 */
+	private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	private boolean cacheable = true;
+	private boolean sent;
+
+	// Only used when detached
+	private String contentType;
+	private String characterEncoding;
+	private int status = HttpServletResponse.SC_OK;
+
+	RenderCaptureResponse(HttpServletResponse response, Mode mode) {
+		super(response);
+		this.mode = mode;
+		this.detached = mode == Mode.DETACHED;
+	}
+
+	/**
+	 * Creates the stream that captures the output, also writing to the wrapped response when teeing.
+	 */
+	private ServletOutputStream newOutputStream() throws IOException {
+		final ServletOutputStream tee = mode == Mode.TEE ? super.getOutputStream() : null;
+		return new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				buffer.write(b);
+				if(tee != null) tee.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				buffer.write(b, off, len);
+				if(tee != null) tee.write(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if(tee != null) tee.flush();
+			}
+		};
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if(writer != null) throw new IllegalStateException("getWriter() has already been called");
+		if(outputStream == null) outputStream = newOutputStream();
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if(outputStream != null) throw new IllegalStateException("getOutputStream() has already been called");
+		if(writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(newOutputStream(), getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	/**
+	 * Gets the captured output, first flushing any writer.
+	 */
+	byte[] toByteArray() {
+		if(writer != null) writer.flush();
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Unless teeing, the content length is set from the captured output.
+	 */
+	@Override
+	public void setContentLength(int len) {
+		if(mode == Mode.TEE) super.setContentLength(len);
+	}
+
+	/**
+	 * Unless teeing, does not commit the response, since the output is sent once captured.
+	 */
+	@Override
+	public void flushBuffer() throws IOException {
+		if(mode == Mode.TEE) {
+			if(writer != null) writer.flush();
+			super.flushBuffer();
+		}
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return sent || (!detached && super.isCommitted());
+	}
+
+	@Override
+	public void resetBuffer() {
+		if(!detached) super.resetBuffer();
+		if(writer != null) writer.flush();
+		buffer.reset();
+	}
+
+	@Override
+	public void reset() {
+		if(detached) {
+			contentType = null;
+			characterEncoding = null;
+			status = HttpServletResponse.SC_OK;
+		} else {
+			super.reset();
+		}
+		if(writer != null) writer.flush();
+		buffer.reset();
+		headers.clear();
+		cacheable = true;
+	}
+
+	@Override
+	public void setContentType(String type) {
+		if(detached) {
+			contentType = type;
+			if(type != null && writer == null) {
+				int pos = type.toLowerCase(Locale.ROOT).indexOf(CHARSET_PARAM);
+				if(pos != -1) {
+					String charset = type.substring(pos + CHARSET_PARAM.length());
+					int semicolon = charset.indexOf(';');
+					characterEncoding = (semicolon == -1 ? charset : charset.substring(0, semicolon)).trim();
+				}
+			}
+		} else {
+			super.setContentType(type);
+		}
+	}
+
+	@Override
+	public String getContentType() {
+		if(detached) {
+			if(
+				contentType != null
+				&& characterEncoding != null
+				&& !contentType.toLowerCase(Locale.ROOT).contains(CHARSET_PARAM)
+			) {
+				return contentType + ";" + CHARSET_PARAM + characterEncoding;
+			}
+			return contentType;
+		} else {
+			return super.getContentType();
+		}
+	}
+
+	@Override
+	public void setCharacterEncoding(String charset) {
+		if(detached) {
+			if(writer == null) characterEncoding = charset;
+		} else {
+			super.setCharacterEncoding(charset);
+		}
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		if(detached) {
+			return characterEncoding == null ? DEFAULT_CHARACTER_ENCODING : characterEncoding;
+		} else {
+			return super.getCharacterEncoding();
+		}
+	}
+
+	@Override
+	public void setLocale(Locale loc) {
+		if(!detached) super.setLocale(loc);
+	}
+
+	@Override
+	public void setStatus(int sc) {
+		if(detached) {
+			status = sc;
+		} else {
+			super.setStatus(sc);
+		}
+	}
+
+	@Override
+	public int getStatus() {
+		return detached ? status : super.getStatus();
+	}
+
+	private void header(String name, String value, boolean add) {
+		if(
+			SET_COOKIE_HEADER.equalsIgnoreCase(name)
+			|| (
+				CACHE_CONTROL_HEADER.equalsIgnoreCase(name)
+				&& value != null
+				&& (
+					value.toLowerCase(Locale.ROOT).contains("private")
+					|| value.toLowerCase(Locale.ROOT).contains("no-store")
+				)
+			)
+		) {
+			cacheable = false;
+		}
+		if(value == null) {
+			if(!add) headers.remove(name);
+			return;
+		}
+		List<String> values = headers.get(name);
+		if(values == null) {
+			values = new ArrayList<>();
+			headers.put(name, values);
+		} else if(!add) {
+			values.clear();
+		}
+		values.add(value);
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		header(name, value, false);
+		if(!detached) super.setHeader(name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		header(name, value, true);
+		if(!detached) super.addHeader(name, value);
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		header(name, HTTP_DATE.format(Instant.ofEpochMilli(date)), false);
+		if(!detached) super.setDateHeader(name, date);
+	}
+
+	@Override
+	public void addDateHeader(String name, long date) {
+		header(name, HTTP_DATE.format(Instant.ofEpochMilli(date)), true);
+		if(!detached) super.addDateHeader(name, date);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		header(name, Integer.toString(value), false);
+		if(!detached) super.setIntHeader(name, value);
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		header(name, Integer.toString(value), true);
+		if(!detached) super.addIntHeader(name, value);
+	}
+
+	@Override
+	public boolean containsHeader(String name) {
+		return detached ? headers.containsKey(name) : super.containsHeader(name);
+	}
+
+	@Override
+	public String getHeader(String name) {
+		if(detached) {
+			List<String> values = headers.get(name);
+			return values == null ? null : values.get(0);
+		} else {
+			return super.getHeader(name);
+		}
+	}
+
+	@Override
+	public Collection<String> getHeaders(String name) {
+		if(detached) {
+			List<String> values = headers.get(name);
+			return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+		} else {
+			return super.getHeaders(name);
+		}
+	}
+
+	@Override
+	public Collection<String> getHeaderNames() {
+		return detached ? Collections.unmodifiableSet(headers.keySet()) : super.getHeaderNames();
+	}
+
+	@Override
+	public void addCookie(Cookie cookie) {
+		cacheable = false;
+		if(!detached) super.addCookie(cookie);
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException {
+		cacheable = false;
+		sent = true;
+		if(!detached) super.sendError(sc);
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		cacheable = false;
+		sent = true;
+		if(!detached) super.sendError(sc, msg);
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		cacheable = false;
+		sent = true;
+		if(!detached) super.sendRedirect(location);
+	}
+
+	/**
+	 * Gets the headers set during the render.
+	 */
+	Map<String, List<String>> getRecordedHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Checks if the response has been sent by an error or redirect, in which
+	 * case the captured output must not be sent.
+	 */
+	boolean isSent() {
+		return sent;
+	}
+
+	/**
+	 * Checks if nothing during the render prevents caching, such as cookies, private cache control,
+	 * or a status other than {@link HttpServletResponse#SC_OK}.
+	 */
+	boolean isCacheable() {
+		return cacheable && getStatus() == HttpServletResponse.SC_OK;
+	}
+}
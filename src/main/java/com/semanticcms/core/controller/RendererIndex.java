@@ -0,0 +1,137 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.renderer.Renderer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable index of renderers by suffix, which finds the renderer with the
+ * longest suffix of a path.  Suffixes are stored in a trie of their characters
+ * in reverse, so a lookup walks backward from the end of the path and is
+ * proportional to the length of the matched suffix, not the number of renderers.
+ * <p>
+ * The index is never modified: a new index is built whenever a renderer is added.
+ * </p>
+ */
+final class RendererIndex {
+
+	/**
+	 * A node in the reversed-suffix trie.  The children are sorted by character for binary search.
+	 */
+	private static final class Node {
+
+		private static final char[] EMPTY_CHARS = {};
+		private static final Node[] EMPTY_CHILDREN = {};
+
+		private Renderer renderer;
+		private char[] chars = EMPTY_CHARS;
+		private Node[] children = EMPTY_CHILDREN;
+
+		private Node getChild(char ch) {
+			int index = Arrays.binarySearch(chars, ch);
+			return index >= 0 ? children[index] : null;
+		}
+
+		/**
+		 * Gets or adds a child, only used while building the index.
+		 */
+		private Node getOrAddChild(char ch) {
+			int index = Arrays.binarySearch(chars, ch);
+			if(index >= 0) return children[index];
+			int insert = -(index + 1);
+			Node child = new Node();
+			char[] newChars = new char[chars.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(chars, 0, newChars, 0, insert);
+			System.arraycopy(children, 0, newChildren, 0, insert);
+			newChars[insert] = ch;
+			newChildren[insert] = child;
+			System.arraycopy(chars, insert, newChars, insert + 1, chars.length - insert);
+			System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+			chars = newChars;
+			children = newChildren;
+			return child;
+		}
+	}
+
+	static final RendererIndex EMPTY = new RendererIndex(Collections.emptyMap());
+
+	/**
+	 * Nodes are only modified during construction, and the index is published
+	 * through final fields.
+	 */
+	private final Node root = new Node();
+
+	/**
+	 * @param renderers  The renderers by suffix.  Any renderer with the empty suffix
+	 *                   matches all paths not matched by a more specific renderer.
+	 */
+	RendererIndex(Map<String, Renderer> renderers) {
+		for(Map.Entry<String, Renderer> entry : renderers.entrySet()) {
+			String suffix = entry.getKey();
+			Node node = root;
+			for(int i = suffix.length() - 1; i >= 0; i--) {
+				node = node.getOrAddChild(suffix.charAt(i));
+			}
+			node.renderer = entry.getValue();
+		}
+	}
+
+	/**
+	 * The result of a lookup: the renderer and the length of its suffix.
+	 */
+	static final class Match {
+
+		final Renderer renderer;
+		final int suffixLength;
+
+		private Match(Renderer renderer, int suffixLength) {
+			this.renderer = renderer;
+			this.suffixLength = suffixLength;
+		}
+	}
+
+	/**
+	 * Finds the renderer with the longest suffix of the given path.
+	 *
+	 * @return  The match or {@code null} when no renderer matches
+	 */
+	Match getMatch(String path) {
+		Node node = root;
+		Renderer renderer = node.renderer;
+		int suffixLength = 0;
+		int len = path.length();
+		for(int i = len - 1; i >= 0; i--) {
+			node = node.getChild(path.charAt(i));
+			if(node == null) break;
+			if(node.renderer != null) {
+				renderer = node.renderer;
+				suffixLength = len - i;
+			}
+		}
+		return renderer == null ? null : new Match(renderer, suffixLength);
+	}
+}
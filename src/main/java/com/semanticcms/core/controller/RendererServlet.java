@@ -22,6 +22,12 @@
  */
 package com.semanticcms.core.controller;
 
+import com.aoindustries.servlet.http.HttpServletUtil;
+import com.aoindustries.servlet.subrequest.HttpServletSubRequest;
+import com.aoindustries.servlet.subrequest.HttpServletSubResponse;
+import com.aoindustries.servlet.subrequest.UnmodifiableCopyHttpServletRequest;
+import com.aoindustries.servlet.subrequest.UnmodifiableCopyHttpServletResponse;
+import com.aoindustries.tempfiles.servlet.TempFileContextEE;
 import com.semanticcms.core.model.Page;
 import com.semanticcms.core.renderer.PageRenderer;
 import com.semanticcms.core.renderer.Renderer;
@@ -29,6 +35,8 @@ import com.semanticcms.core.renderer.servlet.ServletPageRenderer;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.AsyncContext;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -42,8 +50,23 @@ import javax.servlet.http.HttpServletResponse;
  * Calls {@link Renderer} via {@link Renderer#newPageRenderer(com.semanticcms.core.model.Page, java.util.Map)}
  * and {@link PageRenderer#doRenderer(java.io.Writer)}.
  * Also sets the attributes required by {@link ServletPageRenderer}.
+ * <p>
+ * For GET and HEAD requests, sends an entity tag and responds to a matching
+ * <code>If-None-Match</code> with {@link HttpServletResponse#SC_NOT_MODIFIED}
+ * before the page is rendered.
+ * </p>
+ * <p>
+ * HEAD requests are answered without rendering the page.
+ * </p>
+ * <p>
+ * When the {@link RenderCache} is enabled, GET requests are rendered into memory and cached,
+ * then served from the cache with an exact content length until the entity tag changes.
+ * When the render cache allows stale entries, the previous render is sent in full while
+ * the page is re-rendered into the cache in the background, so the first request after a change
+ * does not wait for the render.
+ * </p>
  */
-@WebServlet(name = RendererServlet.NAME)
+@WebServlet(name = RendererServlet.NAME, asyncSupported = true)
 public class RendererServlet extends HttpServlet {
 
 	protected static final String NAME = "com.semanticcms.core.controller.RendererServlet";
@@ -52,6 +75,9 @@ public class RendererServlet extends HttpServlet {
 	protected static final String PAGE_REQUEST_PARAMETER = RendererServlet.class.getName() + ".page";
 	protected static final String PAGE_RENDERER_REQUEST_PARAMETER = RendererServlet.class.getName() + ".pageRenderer";
 
+	private static final String AUTHORIZATION_HEADER = "Authorization";
+	private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
 	private static final long serialVersionUID = 1L;
 
 	public static void dispatch(
@@ -90,22 +116,245 @@ public class RendererServlet extends HttpServlet {
 		if(renderer == null) throw new ServletException("Request parameter not set: " + RENDERER_REQUEST_PARAMETER);
 		Page page = (Page)request.getAttribute(PAGE_REQUEST_PARAMETER);
 		if(page == null) throw new ServletException("Request parameter not set: " + PAGE_REQUEST_PARAMETER);
+		String method = request.getMethod();
+		boolean isGet = HttpServletUtil.METHOD_GET.equalsIgnoreCase(method);
+		boolean isHead = HttpServletUtil.METHOD_HEAD.equalsIgnoreCase(method);
+		RenderCache renderCache = null;
+		RenderCache.Key renderKey = null;
+		String etag = null;
+		if(isGet || isHead) {
+			etag = getETag(renderer, page);
+			if(etag != null) {
+				response.setHeader(ETags.ETAG_HEADER, etag);
+				if(ETags.isNoneMatchFailed(request, etag)) {
+					// Client already has this representation: respond before creating the page renderer
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+				SemanticCMS semanticCMS = SemanticCMS.getInstance(getServletContext());
+				// In-place edits may not change the entity tag when the page source is unknown, so do not cache
+				renderCache = semanticCMS.getPageSourceLastModified(page.getPageRef()) == 0 ? null : semanticCMS.getRenderCache();
+				if(renderCache != null) {
+					String variant = getRenderCacheVariant(request);
+					if(variant != null) {
+						renderKey = new RenderCache.Key(page.getPageRef(), renderer, variant);
+						// If-Modified-Since is evaluated by HttpServlet, so is not served from the cache
+						if(request.getHeader(IF_MODIFIED_SINCE_HEADER) == null) {
+							RenderCache.Entry entry = renderCache.get(renderKey, etag);
+							if(entry != null) {
+								// Serve from cache, without creating the page renderer
+								if(isGet) {
+									entry.send(response);
+								} else {
+									entry.setHeaders(response);
+								}
+								return;
+							}
+							entry = renderCache.getStale(renderKey);
+							if(entry != null) {
+								// Serve the previous render, with its own entity tag
+								String staleETag = entry.getETag();
+								response.setHeader(ETags.ETAG_HEADER, staleETag);
+								if(ETags.isNoneMatchFailed(request, staleETag)) {
+									response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+								} else if(isGet) {
+									entry.send(response);
+								} else {
+									entry.setHeaders(response);
+								}
+								// Only one GET request re-renders the page
+								if(isGet && renderCache.startRefresh(renderKey)) {
+									refreshInBackground(request, response, renderer, page, renderCache, renderKey, etag);
+								}
+								return;
+							}
+						}
+						// Only GET requests populate the cache
+						if(!isGet) renderKey = null;
+					}
+				}
+			}
+		}
+		RenderCaptureResponse capture = renderKey == null ? null : new RenderCaptureResponse(response, RenderCaptureResponse.Mode.CAPTURE);
+		render(request, capture == null ? response : capture, renderer, page);
+		if(capture != null && !capture.isSent()) {
+			byte[] bytes = capture.toByteArray();
+			// Sessions created during the render may have affected the output
+			if(request.getSession(false) == null) renderCache.put(renderKey, etag, capture, bytes);
+			if(bytes.length > 0 || capture.getStatus() == HttpServletResponse.SC_OK) {
+				response.setContentLength(bytes.length);
+				response.getOutputStream().write(bytes);
+			}
+		}
+	}
+
+	/**
+	 * Renders the page through the page renderer.
+	 */
+	private void render(HttpServletRequest request, HttpServletResponse renderResponse, Renderer renderer, Page page) throws ServletException, IOException {
 		Map<String, Object> pageRendererAttributes = new HashMap<>();
 		pageRendererAttributes.put(ServletPageRenderer.REQUEST_RENDERER_ATTRIBUTE, request);
-		pageRendererAttributes.put(ServletPageRenderer.RESPONSE_RENDERER_ATTRIBUTE, response);
+		pageRendererAttributes.put(ServletPageRenderer.RESPONSE_RENDERER_ATTRIBUTE, renderResponse);
 		try (PageRenderer pageRenderer = renderer.newPageRenderer(page, pageRendererAttributes)) {
 			Object oldPageRenderer = request.getAttribute(PAGE_RENDERER_REQUEST_PARAMETER);
 			try {
 				request.setAttribute(PAGE_RENDERER_REQUEST_PARAMETER, pageRenderer);
-				super.service(request, response);
+				super.service(request, renderResponse);
 			} finally {
 				request.setAttribute(PAGE_RENDERER_REQUEST_PARAMETER, oldPageRenderer);
 			}
 		}
 	}
 
+	/**
+	 * Re-renders a page into the {@link RenderCache} in the background, after its stale entry has been sent,
+	 * then ends the refresh claimed by {@link RenderCache#startRefresh(com.semanticcms.core.controller.RenderCache.Key)}.
+	 * <p>
+	 * The response is flushed, then the request is put into asynchronous mode and the render is performed by
+	 * {@link Executors#getUnbounded()}, freeing the container thread.  The render uses thread-safe copies of
+	 * the request and response, as done for concurrent subrequests, while the asynchronous request keeps the
+	 * request-scoped state, such as temporary files, available until the render completes.
+	 * </p>
+	 * <p>
+	 * When asynchronous processing is not supported by all filters and servlets of the request,
+	 * the page is re-rendered on the current thread after the response is flushed.
+	 * </p>
+	 */
+	private void refreshInBackground(
+		HttpServletRequest request,
+		HttpServletResponse response,
+		Renderer renderer,
+		Page page,
+		RenderCache renderCache,
+		RenderCache.Key renderKey,
+		String etag
+	) throws IOException {
+		boolean started = false;
+		try {
+			// Complete the response before rendering
+			response.flushBuffer();
+			if(request.isAsyncSupported()) {
+				HttpServletRequest threadSafeReq = new HttpServletSubRequest(new UnmodifiableCopyHttpServletRequest(request));
+				HttpServletResponse threadSafeResp = new HttpServletSubResponse(new UnmodifiableCopyHttpServletResponse(response), TempFileContextEE.get(request));
+				AsyncContext asyncContext = request.startAsync(request, response);
+				asyncContext.setTimeout(0);
+				Runnable task = () -> {
+					try {
+						refresh(threadSafeReq, threadSafeResp, renderer, page, renderCache, renderKey, etag);
+					} finally {
+						try {
+							renderCache.endRefresh(renderKey);
+						} finally {
+							asyncContext.complete();
+						}
+					}
+				};
+				started = true;
+				try {
+					SemanticCMS.getInstance(getServletContext()).getExecutors().getUnbounded().submit(task);
+				} catch(RejectedExecutionException e) {
+					task.run();
+				}
+			} else {
+				refresh(request, response, renderer, page, renderCache, renderKey, etag);
+			}
+		} finally {
+			if(!started) renderCache.endRefresh(renderKey);
+		}
+	}
+
+	/**
+	 * Re-renders a page into the {@link RenderCache} after its stale entry has been sent.
+	 * The render is detached from the response, which has already been completed.
+	 * Errors are logged, since the client already has its response.
+	 */
+	private void refresh(
+		HttpServletRequest request,
+		HttpServletResponse response,
+		Renderer renderer,
+		Page page,
+		RenderCache renderCache,
+		RenderCache.Key renderKey,
+		String etag
+	) {
+		try {
+			RenderCaptureResponse capture = new RenderCaptureResponse(response, RenderCaptureResponse.Mode.DETACHED);
+			render(request, capture, renderer, page);
+			if(
+				!capture.isSent()
+				// Sessions created during the render may have affected the output
+				&& request.getSession(false) == null
+			) {
+				renderCache.put(renderKey, etag, capture, capture.toByteArray());
+			}
+		} catch(IOException | ServletException | RuntimeException e) {
+			log("Unable to refresh render cache: " + renderKey, e);
+		}
+	}
+
+	/**
+	 * Gets the variant of a request for the {@link RenderCache}, which distinguishes requests for the same
+	 * page and renderer that may be rendered differently.  The render cache is enabled by the
+	 * <code>com.semanticcms.core.controller.SemanticCMS.renderCache.maxSize</code> context parameter.
+	 * <p>
+	 * <b>Implementation Note:</b><br>
+	 * This default implementation bypasses the cache for requests with any session or authentication,
+	 * and otherwise varies by the query string and whether {@link Headers#isExporting(javax.servlet.http.HttpServletRequest) exporting}.
+	 * Applications with output varying by other request state, such as cookies or <code>Accept-Language</code>,
+	 * should override this method.
+	 * </p>
+	 *
+	 * @return  The variant or {@code null} to bypass the render cache for this request
+	 */
+	protected String getRenderCacheVariant(HttpServletRequest request) {
+		if(
+			request.getRequestedSessionId() != null
+			|| request.getSession(false) != null
+			|| request.getRemoteUser() != null
+			|| request.getUserPrincipal() != null
+			|| request.getHeader(AUTHORIZATION_HEADER) != null
+		) {
+			return null;
+		}
+		String queryString = request.getQueryString();
+		String exporting = Headers.isExporting(request) ? "exporting" : "";
+		return queryString == null ? exporting : (exporting + '?' + queryString);
+	}
+
+	/**
+	 * Gets the entity tag for the page as rendered by the given renderer, which is
+	 * checked against any <code>If-None-Match</code> header before the page renderer is created.
+	 * <p>
+	 * <b>Implementation Note:</b><br>
+	 * This default implementation uses a weak entity tag from a fingerprint of the
+	 * captured page, the last modified times of its source and the sources of its
+	 * parents and children, and the renderer.  The entity tag changes at least every
+	 * {@link SemanticCMS#getRenderCacheTtl() render cache time-to-live}, since the
+	 * fingerprint does not cover all that affects the output.
+	 * </p>
+	 * <p>
+	 * When the last modified time of the page source is unknown, the {@link RenderCache}
+	 * is not used.
+	 * </p>
+	 *
+	 * @return  The entity tag, including quotes and any weak indicator, or {@code null} for no entity tag
+	 */
+	protected String getETag(Renderer renderer, Page page) {
+		return PageETag.getETag(SemanticCMS.getInstance(getServletContext()), renderer, page);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When the request has an <code>If-None-Match</code> header, which has already been
+	 * evaluated, returns {@code -1} so <code>If-Modified-Since</code> is ignored.
+	 * </p>
+	 *
+	 * @see  <a href="https://tools.ietf.org/html/rfc7232#section-3.3">RFC 7232, section 3.3</a>
+	 */
 	@Override
 	protected long getLastModified(HttpServletRequest request) {
+		if(request.getHeader(ETags.IF_NONE_MATCH_HEADER) != null) return -1;
 		try {
 			long lastModified = getPageRenderer(request).getLastModified();
 			return lastModified == 0 ? -1 : lastModified;
@@ -115,9 +364,10 @@ public class RendererServlet extends HttpServlet {
 		}
 	}
 
-	@Override
-	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		PageRenderer pageRenderer = getPageRenderer(request);
+	/**
+	 * Sets the content type and, when known without rendering, the content length.
+	 */
+	private static void setHeaders(PageRenderer pageRenderer, HttpServletResponse response) throws IOException {
 		// TODO: Doctype and Serialization stuff here, or somewhere appropriate before Theme.doTheme is called (like in 1.x branch PageImpl.java)
 		response.setContentType(pageRenderer.getContentType());
 		long length = pageRenderer.getLength();
@@ -129,6 +379,26 @@ public class RendererServlet extends HttpServlet {
 				// TODO: Servlet 3.1: response.setContentLengthLong(length);
 			}
 		}
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		PageRenderer pageRenderer = getPageRenderer(request);
+		setHeaders(pageRenderer, response);
 		pageRenderer.doRenderer(response.getWriter());
 	}
+
+	/**
+	 * Sends the same headers as {@link #doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}
+	 * without rendering the page.  The entity tag and last modified time have already been set by
+	 * {@link #service(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}.
+	 * <p>
+	 * Unlike the default implementation, which renders the page to a discarding writer to count its length,
+	 * the content length is only sent when known to the page renderer without rendering.
+	 * </p>
+	 */
+	@Override
+	protected void doHead(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		setHeaders(getPageRenderer(request), response);
+	}
 }
@@ -0,0 +1,283 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.net.Path;
+import com.semanticcms.core.resources.Resource;
+import com.semanticcms.core.resources.ResourceConnection;
+import com.semanticcms.core.resources.ResourceStore;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory cache of small resources, so frequently served resources are served
+ * without accessing their {@link ResourceStore}.  Resources that do not exist are also
+ * cached.
+ * <p>
+ * Each entry is trusted for the revalidation interval, after which the resource is
+ * reopened and its last modified time and length compared.  The content is only
+ * read again when changed.
+ * </p>
+ * <p>
+ * Entries are evicted least-recently-used first once the total length of the cached
+ * resources exceeds the maximum size.  Resources that do not exist are bounded separately,
+ * so requests for many missing paths do not evict the cached resources.
+ * </p>
+ */
+final class ResourceCache {
+
+	/**
+	 * Resources larger than this are not cached.
+	 */
+	static final int MAX_RESOURCE_LENGTH = 64 * 1024;
+
+	/**
+	 * The maximum number of entries of resources that exist.
+	 */
+	private static final int MAX_ENTRIES = 10000;
+
+	/**
+	 * The maximum number of entries of resources that do not exist.
+	 */
+	private static final int MAX_MISSING_ENTRIES = 1000;
+
+	private static class Entry {
+
+		private final Resource resource;
+
+		/**
+		 * The contents of the resource or {@code null} when the resource does not exist.
+		 */
+		private final byte[] bytes;
+
+		private final long lastModified;
+
+		/**
+		 * The {@link System#nanoTime()} when last validated against the store.
+		 */
+		private volatile long validated;
+
+		private Entry(Resource resource, byte[] bytes, long lastModified, long validated) {
+			this.resource = resource;
+			this.bytes = bytes;
+			this.lastModified = lastModified;
+			this.validated = validated;
+		}
+
+		private long getWeight() {
+			return bytes == null ? 0 : bytes.length;
+		}
+	}
+
+	/**
+	 * A connection to a cached resource.  This is never backed by a file.
+	 */
+	static class CachedResourceConnection extends ResourceConnection {
+
+		private final Entry entry;
+
+		private CachedResourceConnection(Entry entry) {
+			super(entry.resource);
+			this.entry = entry;
+		}
+
+		@Override
+		public boolean exists() {
+			return entry.bytes != null;
+		}
+
+		/**
+		 * Gets the cached contents of the resource.
+		 * The returned array is shared and must not be modified.
+		 */
+		byte[] getBytes() throws FileNotFoundException {
+			if(entry.bytes == null) throw new FileNotFoundException(resource.toString());
+			return entry.bytes;
+		}
+
+		@Override
+		public long getLength() throws FileNotFoundException {
+			return getBytes().length;
+		}
+
+		@Override
+		public long getLastModified() throws FileNotFoundException {
+			getBytes();
+			return entry.lastModified;
+		}
+
+		@Override
+		public InputStream getInputStream() throws FileNotFoundException {
+			return new ByteArrayInputStream(getBytes());
+		}
+
+		/**
+		 * Cached resources are not backed by a file.
+		 *
+		 * @return  {@code null} always
+		 */
+		@Override
+		public File getFile() throws FileNotFoundException {
+			getBytes();
+			return null;
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close
+		}
+	}
+
+	private final long maxSize;
+	private final long revalidateIntervalNanos;
+
+	/**
+	 * Access-ordered, guarded by itself.
+	 */
+	private final Map<ResourceKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The entries of resources that do not exist, access-ordered and guarded by {@link #entries}.
+	 */
+	private final Map<ResourceKey, Entry> missing = MapCache.newLruMap(MAX_MISSING_ENTRIES);
+
+	/**
+	 * The total length of all cached resources, guarded by {@link #entries}.
+	 */
+	private long totalSize;
+
+	/**
+	 * @param  maxSize                 The maximum total length of the cached resources
+	 * @param  revalidateIntervalMillis  The number of milliseconds an entry is trusted without accessing the store
+	 */
+	ResourceCache(long maxSize, long revalidateIntervalMillis) {
+		this.maxSize = maxSize;
+		this.revalidateIntervalNanos = revalidateIntervalMillis * 1000000;
+	}
+
+	/**
+	 * Opens a resource, from the cache when possible.
+	 *
+	 * @return  A {@link CachedResourceConnection} when cached, otherwise a connection opened from the store
+	 */
+	ResourceConnection open(ResourceStore store, Path path) throws IOException {
+		ResourceKey key = new ResourceKey(store, path);
+		Entry entry;
+		synchronized(entries) {
+			entry = entries.get(key);
+			if(entry == null) entry = missing.get(key);
+		}
+		long now = System.nanoTime();
+		if(entry != null && (now - entry.validated) < revalidateIntervalNanos) {
+			return new CachedResourceConnection(entry);
+		}
+		Resource resource = entry != null ? entry.resource : store.getResource(path);
+		ResourceConnection resourceConn = resource.open();
+		boolean closeConn = true;
+		try {
+			Entry newEntry;
+			if(!resourceConn.exists()) {
+				if(entry != null && entry.bytes == null) {
+					entry.validated = now;
+					return new CachedResourceConnection(entry);
+				}
+				newEntry = new Entry(resource, null, 0, now);
+			} else {
+				long length = resourceConn.getLength();
+				long lastModified = resourceConn.getLastModified();
+				if(
+					entry != null
+					&& entry.bytes != null
+					&& entry.bytes.length == length
+					&& entry.lastModified == lastModified
+				) {
+					entry.validated = now;
+					return new CachedResourceConnection(entry);
+				}
+				// Unknown last modified times cannot be revalidated
+				if(length == -1 || length > MAX_RESOURCE_LENGTH || lastModified == 0) {
+					if(entry != null) {
+						synchronized(entries) {
+							if(entries.get(key) == entry || missing.get(key) == entry) remove(key);
+						}
+					}
+					closeConn = false;
+					return resourceConn;
+				}
+				byte[] bytes = new byte[(int)length];
+				try (InputStream in = resourceConn.getInputStream()) {
+					int pos = 0;
+					while(pos < bytes.length) {
+						int numBytes = in.read(bytes, pos, bytes.length - pos);
+						if(numBytes == -1) throw new EOFException("End of stream with " + (bytes.length - pos) + " bytes remaining in " + resourceConn);
+						pos += numBytes;
+					}
+				}
+				newEntry = new Entry(resource, bytes, lastModified, now);
+			}
+			synchronized(entries) {
+				if(newEntry.bytes == null) {
+					remove(key);
+					missing.put(key, newEntry);
+					return new CachedResourceConnection(newEntry);
+				}
+				missing.remove(key);
+				Entry old = entries.put(key, newEntry);
+				if(old != null) totalSize -= old.getWeight();
+				totalSize += newEntry.getWeight();
+				// Evict least-recently-used, never the new entry
+				Iterator<Entry> iter = entries.values().iterator();
+				while(
+					(totalSize > maxSize || entries.size() > MAX_ENTRIES)
+					&& iter.hasNext()
+				) {
+					Entry eldest = iter.next();
+					if(eldest != newEntry) {
+						iter.remove();
+						totalSize -= eldest.getWeight();
+					}
+				}
+			}
+			return new CachedResourceConnection(newEntry);
+		} finally {
+			if(closeConn) resourceConn.close();
+		}
+	}
+
+	/**
+	 * Must be holding the lock on {@link #entries}.
+	 */
+	private void remove(ResourceKey key) {
+		assert Thread.holdsLock(entries);
+		Entry removed = entries.remove(key);
+		if(removed != null) totalSize -= removed.getWeight();
+		missing.remove(key);
+	}
+}
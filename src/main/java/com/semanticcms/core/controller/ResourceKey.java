@@ -0,0 +1,63 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.aoindustries.net.Path;
+import com.semanticcms.core.resources.Resource;
+import com.semanticcms.core.resources.ResourceStore;
+import java.util.Objects;
+
+/**
+ * Identifies a resource by its store and path, for use as a cache key.
+ */
+final class ResourceKey {
+
+	private final ResourceStore store;
+	private final Path path;
+
+	ResourceKey(ResourceStore store, Path path) {
+		this.store = store;
+		this.path = path;
+	}
+
+	ResourceKey(Resource resource) {
+		this(resource.getStore(), resource.getPath());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof ResourceKey)) return false;
+		ResourceKey other = (ResourceKey)obj;
+		return store.equals(other.store) && path.equals(other.path);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(store, path);
+	}
+
+	@Override
+	public String toString() {
+		return store + ":" + path;
+	}
+}
@@ -1,6 +1,6 @@
 /*
  * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
- * Copyright (C) 2018, 2019, 2020  AO Industries, Inc.
+ * Copyright (C) 2018, 2019, 2020, 2021  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -24,9 +24,42 @@ package com.semanticcms.core.controller;
 
 import com.aoindustries.io.ContentType;
 import com.aoindustries.io.IoUtils;
+import com.aoindustries.lang.Strings;
+import com.aoindustries.net.Path;
+import com.aoindustries.servlet.http.HttpServletUtil;
+import com.aoindustries.validation.ValidationException;
+import com.semanticcms.core.resources.Resource;
 import com.semanticcms.core.resources.ResourceConnection;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -41,15 +74,106 @@ import javax.servlet.http.HttpServletResponse;
  * TODO: This has a lot of redundancy with DefaultServlet.  Is there a way to leverage DefaultServlet
  * for this purpose?
  */
-@WebServlet(name = ResourceServlet.NAME)
+@WebServlet(name = ResourceServlet.NAME, asyncSupported = true)
 public class ResourceServlet extends HttpServlet {
 
+	private static final Logger logger = Logger.getLogger(ResourceServlet.class.getName());
+
 	protected static final String NAME = "com.semanticcms.core.controller.ResourceServlet";
 
 	protected static final String RESOURCE_CONN_REQUEST_PARAMETER = ResourceServlet.class.getName() + ".resourceConn";
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * The maximum total size, in bytes, of the on-disk cache of compressed resources.
+	 * A value of {@code 0} disables the cache.
+	 */
+	private static final String COMPRESSED_CACHE_MAX_SIZE_INIT_PARAM = ResourceServlet.class.getName() + ".compressedCache.maxSize";
+
+	private static final long DEFAULT_COMPRESSED_CACHE_MAX_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * The cache of compressed resources or {@code null} when disabled.
+	 */
+	private transient CompressedResourceCache compressedCache;
+
+	/**
+	 * The maximum number of entries in the resource metadata cache.
+	 * A value of {@code 0} disables the cache.
+	 */
+	private static final String METADATA_CACHE_MAX_SIZE_INIT_PARAM = ResourceServlet.class.getName() + ".metadataCache.maxSize";
+
+	private static final int DEFAULT_METADATA_CACHE_MAX_SIZE = 10000;
+
+	private transient int metadataCacheMaxSize;
+
+	/**
+	 * The cache of resource metadata or {@code null} when disabled.
+	 */
+	private transient ConcurrentMap<ResourceKey, Metadata> metadataCache;
+
+	/**
+	 * The maximum number of threads transferring large resources asynchronously.
+	 * A value of {@code 0} disables asynchronous transfers.
+	 */
+	private static final String ASYNC_THREADS_INIT_PARAM = ResourceServlet.class.getName() + ".async.threads";
+
+	private static final int DEFAULT_ASYNC_THREADS = 32;
+
+	/**
+	 * The executor for asynchronous transfers or {@code null} when disabled.
+	 */
+	private transient ThreadPoolExecutor transferExecutor;
+
+	@Override
+	public void init() throws ServletException {
+		ServletContext servletContext = getServletContext();
+		String maxSizeStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(COMPRESSED_CACHE_MAX_SIZE_INIT_PARAM));
+		long maxSize = maxSizeStr == null ? DEFAULT_COMPRESSED_CACHE_MAX_SIZE : Long.parseLong(maxSizeStr);
+		File tempDir = (File)servletContext.getAttribute(ServletContext.TEMPDIR);
+		compressedCache = (maxSize > 0 && tempDir != null) ? new CompressedResourceCache(tempDir, maxSize) : null;
+		String metadataMaxSizeStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(METADATA_CACHE_MAX_SIZE_INIT_PARAM));
+		metadataCacheMaxSize = metadataMaxSizeStr == null ? DEFAULT_METADATA_CACHE_MAX_SIZE : Integer.parseInt(metadataMaxSizeStr);
+		metadataCache = metadataCacheMaxSize > 0 ? new ConcurrentHashMap<>() : null;
+		String asyncThreadsStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(ASYNC_THREADS_INIT_PARAM));
+		int asyncThreads = asyncThreadsStr == null ? DEFAULT_ASYNC_THREADS : Integer.parseInt(asyncThreadsStr);
+		if(asyncThreads > 0) {
+			AtomicInteger threadNum = new AtomicInteger();
+			String threadNamePrefix = NAME + ".transfer-";
+			// Rejects when all threads are busy, with the transfer then performed on the request thread
+			transferExecutor = new ThreadPoolExecutor(
+				0, asyncThreads,
+				60, TimeUnit.SECONDS,
+				new SynchronousQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, threadNamePrefix + threadNum.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			);
+		} else {
+			transferExecutor = null;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		metadataCache = null;
+		ThreadPoolExecutor executor = transferExecutor;
+		transferExecutor = null;
+		if(executor != null) executor.shutdownNow();
+		CompressedResourceCache cache = compressedCache;
+		compressedCache = null;
+		if(cache != null) {
+			try {
+				cache.close();
+			} catch(IOException e) {
+				log(null, e);
+			}
+		}
+	}
+
 	public static void dispatch(
 		ServletContext servletContext,
 		HttpServletRequest request,
@@ -73,44 +197,826 @@ public class ResourceServlet extends HttpServlet {
 		return resourceConn;
 	}
 
+	/**
+	 * MIME types by lower-case file extension, used when not found in the servlet context.
+	 * Covers types commonly missing from container defaults.
+	 */
+	private static final Map<String, String> MIME_TYPES;
+	static {
+		Map<String, String> mimeTypes = new HashMap<>();
+		mimeTypes.put("css", ContentType.CSS);
+		mimeTypes.put("gif", "image/gif");
+		mimeTypes.put("htm", ContentType.HTML);
+		mimeTypes.put("html", ContentType.HTML);
+		mimeTypes.put("ico", "image/x-icon");
+		mimeTypes.put("jpeg", "image/jpeg");
+		mimeTypes.put("jpg", "image/jpeg");
+		mimeTypes.put("js", ContentType.JAVASCRIPT);
+		mimeTypes.put("json", ContentType.JSON);
+		mimeTypes.put("map", ContentType.JSON);
+		mimeTypes.put("mjs", ContentType.JAVASCRIPT);
+		mimeTypes.put("pdf", "application/pdf");
+		mimeTypes.put("png", "image/png");
+		mimeTypes.put("svg", ContentType.SVG);
+		mimeTypes.put("txt", ContentType.TEXT);
+		mimeTypes.put("webmanifest", "application/manifest+json");
+		mimeTypes.put("webp", "image/webp");
+		mimeTypes.put("woff", "font/woff");
+		mimeTypes.put("woff2", "font/woff2");
+		mimeTypes.put("xhtml", ContentType.XHTML);
+		mimeTypes.put("xml", ContentType.XML);
+		mimeTypes.put("zip", "application/zip");
+		MIME_TYPES = Collections.unmodifiableMap(mimeTypes);
+	}
+
+	/**
+	 * The number of leading bytes examined when sniffing the type of a resource.
+	 */
+	private static final int SNIFF_LENGTH = 512;
+
+	/**
+	 * Magic numbers, as pairs of leading bytes and MIME type.
+	 */
+	private static final Object[][] MAGIC_NUMBERS = {
+		{new byte[] {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, "image/png"},
+		{new byte[] {(byte)0xFF, (byte)0xD8, (byte)0xFF}, "image/jpeg"},
+		{new byte[] {'G', 'I', 'F', '8'}, "image/gif"},
+		{new byte[] {'%', 'P', 'D', 'F', '-'}, "application/pdf"},
+		{new byte[] {'P', 'K', 3, 4}, "application/zip"},
+		{new byte[] {0x1F, (byte)0x8B}, "application/gzip"},
+		{new byte[] {'w', 'O', 'F', 'F'}, "font/woff"},
+		{new byte[] {'w', 'O', 'F', '2'}, "font/woff2"}
+	};
+
+	/**
+	 * Sniffs the MIME type of a resource from its leading bytes.
+	 *
+	 * @return  The MIME type of a known magic number, {@link ContentType#TEXT} when the leading bytes
+	 *          contain no control characters other than whitespace, otherwise {@link ContentType#OCTET_STREAM}
+	 */
+	private static String sniffMimeType(ResourceConnection resourceConn) throws IOException {
+		byte[] buff = new byte[SNIFF_LENGTH];
+		int len = 0;
+		try (InputStream in = resourceConn.getInputStream()) {
+			int numBytes;
+			while(len < buff.length && (numBytes = in.read(buff, len, buff.length - len)) != -1) {
+				len += numBytes;
+			}
+		}
+		for(Object[] magic : MAGIC_NUMBERS) {
+			byte[] prefix = (byte[])magic[0];
+			if(len >= prefix.length && Arrays.equals(prefix, Arrays.copyOf(buff, prefix.length))) {
+				return (String)magic[1];
+			}
+		}
+		for(int i = 0; i < len; i++) {
+			byte b = buff[i];
+			if(b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f') return ContentType.OCTET_STREAM;
+		}
+		return ContentType.TEXT;
+	}
+
+	/**
+	 * Gets the content type of a resource.  This is only called when not already cached
+	 * for the current length and last modified time of the resource.
+	 * <p>
+	 * <b>Implementation Note:</b><br>
+	 * This default implementation uses the servlet context MIME mapping, then a table of common
+	 * extensions, then sniffs the leading bytes of the resource.  Textual types are assumed to be
+	 * encoded in UTF-8.
+	 * </p>
+	 *
+	 * @return  The content type, including any charset
+	 */
+	protected String getContentType(ResourceConnection resourceConn) throws IOException {
+		String filename = resourceConn.getResource().getPath().toString();
+		String mimeType = getServletContext().getMimeType(filename);
+		if(mimeType == null) {
+			int slash = filename.lastIndexOf(Path.SEPARATOR_CHAR);
+			int dot = filename.lastIndexOf('.');
+			if(dot > slash) mimeType = MIME_TYPES.get(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+			if(mimeType == null) mimeType = sniffMimeType(resourceConn);
+		}
+		if(
+			mimeType.indexOf(';') == -1
+			&& (
+				mimeType.startsWith("text/")
+				|| mimeType.equals(ContentType.JAVASCRIPT)
+				|| mimeType.equals(ContentType.JSON)
+			)
+		) {
+			return mimeType + "; charset=UTF-8";
+		} else {
+			return mimeType;
+		}
+	}
+
+	/**
+	 * The metadata of a resource, valid for a given length and last modified time.
+	 */
+	private static class Metadata {
+
+		private final long length;
+		private final long lastModified;
+		private final String contentType;
+		private final boolean compressible;
+
+		private Metadata(long length, long lastModified, String contentType) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			int semicolon = contentType.indexOf(';');
+			this.compressible = isCompressible(semicolon == -1 ? contentType : contentType.substring(0, semicolon).trim());
+		}
+	}
+
+	/**
+	 * Gets the metadata of a resource, from the cache when its length and last modified time
+	 * are unchanged.  Resources with an unknown length or last modified time are not cached.
+	 * The metadata is resolved without reading the resource, other than for sniffing
+	 * unknown types on a cache miss.
+	 */
+	private Metadata getMetadata(ResourceConnection resourceConn, long length, long lastModified) throws IOException {
+		ConcurrentMap<ResourceKey, Metadata> cache = metadataCache;
+		ResourceKey key;
+		if(cache != null && length != -1 && lastModified != 0) {
+			key = new ResourceKey(resourceConn.getResource());
+			Metadata metadata = cache.get(key);
+			if(
+				metadata != null
+				&& metadata.length == length
+				&& metadata.lastModified == lastModified
+			) {
+				return metadata;
+			}
+		} else {
+			key = null;
+		}
+		Metadata metadata = new Metadata(length, lastModified, getContentType(resourceConn));
+		if(key != null) {
+			// Cleared when full, like the route cache in Controller
+			if(cache.size() >= metadataCacheMaxSize) cache.clear();
+			cache.put(key, metadata);
+		}
+		return metadata;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Conditional requests are evaluated by {@link #doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)},
+	 * in the order required by <a href="https://tools.ietf.org/html/rfc7232#section-6">RFC 7232, section 6</a>,
+	 * so this always returns {@code -1}.
+	 * </p>
+	 */
 	@Override
 	protected long getLastModified(HttpServletRequest request) {
+		return -1;
+	}
+
+	/**
+	 * Gets the entity tag for a resource.
+	 * <p>
+	 * <b>Implementation Note:</b><br>
+	 * This default implementation derives a strong entity tag from the length and last modified time
+	 * of the resource, when both are known.
+	 * </p>
+	 *
+	 * @param  length        The length of the resource or {@code -1} when unknown
+	 * @param  lastModified  The last modified time of the resource or {@code 0} when unknown
+	 *
+	 * @return  The strong entity tag, including quotes, or {@code null} for no entity tag
+	 */
+	protected String getETag(ResourceConnection resourceConn, long length, long lastModified) throws IOException {
+		if(length == -1 || lastModified == 0) return null;
+		return "\"" + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+	}
+
+	/**
+	 * The maximum number of ranges in a single request.  Requests for more ranges are
+	 * served the full resource.
+	 */
+	private static final int MAX_RANGES = 16;
+
+	private static final String RANGE_HEADER = "Range";
+	private static final String IF_RANGE_HEADER = "If-Range";
+	private static final String IF_MATCH_HEADER = "If-Match";
+	private static final String IF_UNMODIFIED_SINCE_HEADER = "If-Unmodified-Since";
+	private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+	private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+	private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+	private static final String CONTENT_RANGE_HEADER = "Content-Range";
+	private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+	private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+	private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+	private static final String VARY_HEADER = "Vary";
+	private static final String BYTES_UNIT = "bytes";
+	private static final String CRLF = "\r\n";
+
+	/**
+	 * Gets a date header, compared at the one-second resolution of HTTP dates.
+	 *
+	 * @return  The date in seconds or {@code -1} when not present or not a valid date
+	 */
+	private static long getDateHeaderSeconds(HttpServletRequest request, String name) {
 		try {
-			ResourceConnection resourceConn = getResourceConn(request);
-			long lastModified = resourceConn.getLastModified();
-			return lastModified == 0 ? -1 : lastModified;
-		} catch(IOException | ServletException e) {
-			log(null, e);
+			long date = request.getDateHeader(name);
+			return date == -1 ? -1 : (date / 1000);
+		} catch(IllegalArgumentException e) {
+			// Invalid dates are ignored
 			return -1;
 		}
 	}
 
+	/**
+	 * Evaluates the preconditions of <a href="https://tools.ietf.org/html/rfc7232#section-6">RFC 7232, section 6</a>.
+	 *
+	 * @return  {@code true} when the request should proceed, or {@code false} when a response has been sent
+	 */
+	private static boolean checkPreconditions(HttpServletRequest request, HttpServletResponse response, String etag, long lastModified) {
+		long lastModifiedSeconds = lastModified == 0 ? -1 : (lastModified / 1000);
+		String ifMatch = request.getHeader(IF_MATCH_HEADER);
+		if(ifMatch != null) {
+			if(!"*".equals(ifMatch.trim()) && (etag == null || !ETags.matches(ifMatch, etag, false))) {
+				response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+				return false;
+			}
+		} else {
+			long ifUnmodifiedSince = getDateHeaderSeconds(request, IF_UNMODIFIED_SINCE_HEADER);
+			if(ifUnmodifiedSince != -1 && lastModifiedSeconds != -1 && lastModifiedSeconds > ifUnmodifiedSince) {
+				response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+				return false;
+			}
+		}
+		String ifNoneMatch = request.getHeader(ETags.IF_NONE_MATCH_HEADER);
+		if(ifNoneMatch != null) {
+			// The resource exists, so "*" matches even without an entity tag
+			if("*".equals(ifNoneMatch.trim()) || (etag != null && ETags.matches(ifNoneMatch, etag, true))) {
+				// Only called for GET and HEAD
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return false;
+			}
+		} else {
+			long ifModifiedSince = getDateHeaderSeconds(request, IF_MODIFIED_SINCE_HEADER);
+			if(ifModifiedSince != -1 && lastModifiedSeconds != -1 && lastModifiedSeconds <= ifModifiedSince) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the <code>Range</code> header applies, considering any <code>If-Range</code>.
+	 */
+	private static boolean isRangeApplicable(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader(IF_RANGE_HEADER);
+		if(ifRange == null) return true;
+		ifRange = ifRange.trim();
+		if(ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// Strong comparison
+			return etag != null && ETags.matches(ifRange, etag, false);
+		} else {
+			// Exact date match
+			long date = getDateHeaderSeconds(request, IF_RANGE_HEADER);
+			return date != -1 && lastModified != 0 && (lastModified / 1000) == date;
+		}
+	}
+
+	/**
+	 * Indicates a <code>Range</code> header that has valid syntax but no satisfiable ranges.
+	 */
+	private static final long[][] UNSATISFIABLE = {};
+
+	/**
+	 * Parses the <code>Range</code> header.
+	 *
+	 * @return  The ranges, each as {first, last} inclusive, {@link #UNSATISFIABLE} when no range
+	 *          may be satisfied, or {@code null} to send the full resource
+	 *
+	 * @see  <a href="https://tools.ietf.org/html/rfc7233#section-2.1">RFC 7233, section 2.1</a>
+	 */
+	private static long[][] parseRanges(String range, long length) {
+		if(range == null) return null;
+		range = range.trim();
+		int equals = range.indexOf('=');
+		if(equals == -1 || !BYTES_UNIT.equalsIgnoreCase(range.substring(0, equals).trim())) return null;
+		String[] specs = range.substring(equals + 1).split(",", -1);
+		if(specs.length > MAX_RANGES) return null;
+		List<long[]> ranges = new ArrayList<>(specs.length);
+		for(String spec : specs) {
+			spec = spec.trim();
+			if(spec.isEmpty()) continue;
+			int dash = spec.indexOf('-');
+			if(dash == -1) return null;
+			long first, last;
+			try {
+				String firstStr = spec.substring(0, dash).trim();
+				String lastStr = spec.substring(dash + 1).trim();
+				if(firstStr.isEmpty()) {
+					// Suffix range
+					if(lastStr.isEmpty()) return null;
+					long suffixLength = Long.parseLong(lastStr);
+					if(suffixLength < 0) return null;
+					if(suffixLength == 0) continue;
+					first = Math.max(0, length - suffixLength);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(firstStr);
+					last = lastStr.isEmpty() ? (length - 1) : Long.parseLong(lastStr);
+					if(first < 0 || last < first) return null;
+					if(last >= length) last = length - 1;
+				}
+			} catch(NumberFormatException e) {
+				return null;
+			}
+			// Unsatisfiable ranges are skipped
+			if(first < length) ranges.add(new long[] {first, last});
+		}
+		if(ranges.isEmpty()) return UNSATISFIABLE;
+		return ranges.toArray(new long[ranges.size()][]);
+	}
+
+	private static void setContentLength(HttpServletResponse response, long length) {
+		if(length <= Integer.MAX_VALUE) {
+			response.setContentLength((int)length);
+		} else {
+			// TODO: Servlet 3.1: response.setContentLengthLong(length);
+			response.setHeader(CONTENT_LENGTH_HEADER, Long.toString(length));
+		}
+	}
+
+	private static final String BROTLI = "br";
+	private static final String GZIP = "gzip";
+
+	/**
+	 * The content codings that may be served from precompressed siblings, in order of preference,
+	 * with the sibling of each found by adding its extension.
+	 */
+	private static final String[][] PRECOMPRESSED_CODINGS = {
+		{BROTLI, ".br"},
+		{GZIP, ".gz"}
+	};
+
+	private static final Set<String> COMPRESSIBLE_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+		"application/ecmascript",
+		"application/javascript",
+		"application/json",
+		"application/x-javascript",
+		"application/xml",
+		"image/svg+xml",
+		"image/x-icon"
+	)));
+
+	/**
+	 * Checks if a MIME type is worth compressing.
+	 *
+	 * @param  mimeType  The MIME type, without any parameters, or {@code null} when unknown
+	 */
+	private static boolean isCompressible(String mimeType) {
+		if(mimeType == null) return false;
+		mimeType = mimeType.toLowerCase(Locale.ROOT);
+		return
+			mimeType.startsWith("text/")
+			|| mimeType.endsWith("+xml")
+			|| mimeType.endsWith("+json")
+			|| COMPRESSIBLE_TYPES.contains(mimeType);
+	}
+
+	/**
+	 * Checks if a content coding is acceptable, considering any quality values.
+	 *
+	 * @see  <a href="https://tools.ietf.org/html/rfc7231#section-5.3.4">RFC 7231, section 5.3.4</a>
+	 */
+	private static boolean isAccepted(String acceptEncoding, String coding) {
+		Boolean wildcard = null;
+		for(String element : acceptEncoding.split(",")) {
+			int semicolon = element.indexOf(';');
+			String name = (semicolon == -1 ? element : element.substring(0, semicolon)).trim();
+			boolean isCoding = name.equalsIgnoreCase(coding);
+			if(isCoding || "*".equals(name)) {
+				boolean accepted = true;
+				if(semicolon != -1) {
+					String param = element.substring(semicolon + 1).trim();
+					if(param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+						try {
+							accepted = Double.parseDouble(param.substring(2).trim()) > 0;
+						} catch(NumberFormatException e) {
+							// Invalid quality values are ignored
+						}
+					}
+				}
+				if(isCoding) return accepted;
+				wildcard = accepted;
+			}
+		}
+		return wildcard != null && wildcard;
+	}
+
+	/**
+	 * Opens a precompressed sibling of a resource, such as <code>style.css.gz</code> for <code>style.css</code>,
+	 * from the same resource store.
+	 *
+	 * @return  The connection, which must be closed by the caller, or {@code null} when no up-to-date sibling exists
+	 */
+	private ResourceConnection openPrecompressed(ResourceConnection resourceConn, String extension, long lastModified) throws IOException {
+		Resource resource = resourceConn.getResource();
+		Path siblingPath;
+		try {
+			siblingPath = Path.valueOf(resource.getPath().toString() + extension);
+		} catch(ValidationException e) {
+			throw new AssertionError("Adding an extension to a valid path must also be valid", e);
+		}
+		ResourceConnection siblingConn = SemanticCMS.getInstance(getServletContext()).openResource(resource.getStore(), siblingPath);
+		boolean success = false;
+		try {
+			if(
+				siblingConn.exists()
+				// Ignore stale siblings
+				&& siblingConn.getLastModified() >= lastModified
+			) {
+				success = true;
+				return siblingConn;
+			}
+			return null;
+		} finally {
+			if(!success) siblingConn.close();
+		}
+	}
+
+	/**
+	 * Adds the content coding to an entity tag, since each coding is a distinct representation.
+	 */
+	private static String getEncodedETag(String etag, String contentCoding) {
+		if(etag == null) return null;
+		return etag.substring(0, etag.length() - 1) + '-' + contentCoding + '"';
+	}
+
+	private static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+	/**
+	 * Ranges smaller than this are written directly, since the overhead of
+	 * sendfile outweighs its benefit.
+	 */
+	private static final long SENDFILE_MIN_LENGTH = 48 * 1024;
+
+	/**
+	 * Gets the file backing a resource, when the resource prefers file access.
+	 *
+	 * @return  The file or {@code null} when the resource should be read as a stream
+	 */
+	private static File getFile(ResourceConnection resourceConn) throws IOException {
+		return resourceConn.getResource().isFilePreferred() ? resourceConn.getFile() : null;
+	}
+
+	/**
+	 * Hands-off a range of a file to the container's sendfile support, which
+	 * sends the file directly from the kernel after this servlet returns.
+	 * Currently supports Apache Tomcat with NIO or APR connectors.
+	 * The response headers, including content length, must already be set.
+	 *
+	 * @return  {@code true} when the container will send the range, or {@code false} when the range must be written
+	 *
+	 * @see  <a href="https://tomcat.apache.org/tomcat-9.0-doc/aio.html">Advanced IO and Tomcat</a>
+	 */
+	private static boolean trySendfile(HttpServletRequest request, File file, long first, long last) throws IOException {
+		if(
+			file != null
+			&& (last - first + 1) >= SENDFILE_MIN_LENGTH
+			&& Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE))
+			// No body for HEAD requests
+			&& !HttpServletUtil.METHOD_HEAD.equalsIgnoreCase(request.getMethod())
+		) {
+			request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START_ATTRIBUTE, first);
+			// End is exclusive
+			request.setAttribute(SENDFILE_END_ATTRIBUTE, last + 1);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Ranges smaller than this are written on the request thread, since they are
+	 * unlikely to hold it for long.
+	 */
+	private static final long ASYNC_MIN_LENGTH = 1024 * 1024;
+
+	/**
+	 * Transfers a range of a file asynchronously, so a slow client does not hold a container thread
+	 * for the whole transfer.  The transfer is performed by a bounded pool of transfer threads.
+	 * When all transfer threads are busy, the transfer is performed on the request thread.
+	 * <p>
+	 * The connection opened by {@link Controller} is closed once this servlet returns, so only file-backed
+	 * ranges are transferred asynchronously, from their own channel.
+	 * </p>
+	 * <p>
+	 * Writes remain blocking, since non-blocking output requires Servlet 3.1.  Stalled clients are limited
+	 * by the connector's write timeout, so no asynchronous timeout is used.
+	 * </p>
+	 *
+	 * @param  channel  An already open channel, which is closed by the transfer once started,
+	 *                  or {@code null} to open the file
+	 *
+	 * @return  {@code true} when the transfer has been started, or {@code false} when the range must be written
+	 */
+	private boolean tryAsyncTransfer(HttpServletRequest request, HttpServletResponse response, File file, FileChannel channel, long first, long last) throws IOException {
+		ThreadPoolExecutor executor = transferExecutor;
+		if(
+			executor == null
+			|| (last - first + 1) < ASYNC_MIN_LENGTH
+			|| (file == null && channel == null)
+			// No body for HEAD requests
+			|| HttpServletUtil.METHOD_HEAD.equalsIgnoreCase(request.getMethod())
+			// All filters and servlets in the chain must support async
+			|| !request.isAsyncSupported()
+		) {
+			return false;
+		}
+		FileChannel transferChannel = channel != null ? channel : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		AsyncContext asyncContext;
+		ServletOutputStream out;
+		boolean started = false;
+		try {
+			out = response.getOutputStream();
+			asyncContext = request.startAsync(request, response);
+			asyncContext.setTimeout(0);
+			started = true;
+		} finally {
+			if(!started && channel == null) transferChannel.close();
+		}
+		Runnable transfer = () -> {
+			try {
+				try {
+					transferRange(transferChannel, out, first, last);
+				} finally {
+					transferChannel.close();
+				}
+			} catch(IOException e) {
+				// Usually the client disconnecting
+				logger.log(Level.FINE, null, e);
+			} finally {
+				asyncContext.complete();
+			}
+		};
+		try {
+			executor.execute(transfer);
+		} catch(RejectedExecutionException e) {
+			transfer.run();
+		}
+		return true;
+	}
+
+	/**
+	 * Copies a range of a channel to the output using
+	 * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+	 * avoiding the stream layers and intermediate heap buffers.
+	 */
+	private static void transferRange(FileChannel channel, OutputStream out, long first, long last) throws IOException {
+		long remaining = last - first + 1;
+		// Not closed, since would close the output stream
+		WritableByteChannel target = Channels.newChannel(out);
+		long position = first;
+		while(remaining > 0) {
+			long transferred = channel.transferTo(position, remaining, target);
+			if(transferred <= 0 && position >= channel.size()) {
+				throw new EOFException("End of file with " + remaining + " bytes remaining");
+			}
+			position += transferred;
+			remaining -= transferred;
+		}
+	}
+
+	/**
+	 * Copies a range of the resource to the output.  Resources cached in memory are written directly.
+	 * When a channel or file is available, uses
+	 * {@link #transferRange(java.nio.channels.FileChannel, java.io.OutputStream, long, long)}.
+	 *
+	 * @param  channel  An already open channel to copy from or {@code null} to use the file or resource
+	 */
+	private static void copyRange(ResourceConnection resourceConn, File file, FileChannel channel, OutputStream out, long first, long last) throws IOException {
+		if(channel != null) {
+			transferRange(channel, out, first, last);
+			return;
+		}
+		if(resourceConn instanceof ResourceCache.CachedResourceConnection) {
+			byte[] bytes = ((ResourceCache.CachedResourceConnection)resourceConn).getBytes();
+			if(last >= bytes.length) throw new EOFException("End of resource with " + (last - bytes.length + 1) + " bytes remaining in " + resourceConn);
+			out.write(bytes, (int)first, (int)(last - first + 1));
+			return;
+		}
+		if(file != null) {
+			try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				transferRange(fileChannel, out, first, last);
+			}
+			return;
+		}
+		long remaining = last - first + 1;
+		try (InputStream in = resourceConn.getInputStream()) {
+			long toSkip = first;
+			while(toSkip > 0) {
+				long skipped = in.skip(toSkip);
+				if(skipped <= 0) {
+					// skip may stop early, confirm not at end of stream
+					if(in.read() == -1) throw new EOFException("End of stream while skipping to " + first + " in " + resourceConn);
+					skipped = 1;
+				}
+				toSkip -= skipped;
+			}
+			byte[] buff = new byte[(int)Math.min(BUFFER_SIZE, remaining)];
+			while(remaining > 0) {
+				int numBytes = in.read(buff, 0, (int)Math.min(buff.length, remaining));
+				if(numBytes == -1) throw new EOFException("End of stream with " + remaining + " bytes remaining in " + resourceConn);
+				out.write(buff, 0, numBytes);
+				remaining -= numBytes;
+			}
+		}
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static String getContentRange(long first, long last, long length) {
+		return BYTES_UNIT + ' ' + first + '-' + last + '/' + length;
+	}
+
+	/**
+	 * Serves the resource, supporting conditional requests, byte ranges, and compression.
+	 * <p>
+	 * Compressible resources are served from an up-to-date precompressed sibling in the same
+	 * resource store, such as <code>style.css.br</code> or <code>style.css.gz</code>, when
+	 * accepted by the client.  Otherwise, they are gzip compressed once per change into an
+	 * on-disk cache.
+	 * </p>
+	 *
+	 * @see  <a href="https://tools.ietf.org/html/rfc7232">RFC 7232: Conditional Requests</a>
+	 * @see  <a href="https://tools.ietf.org/html/rfc7233">RFC 7233: Range Requests</a>
+	 */
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		doGetHead(request, response, false);
+	}
+
+	/**
+	 * Sends the same headers as {@link #doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)},
+	 * without reading the resource.  A resource is only sent as gzip compressed when already in the
+	 * compressed cache, so a <code>HEAD</code> request never compresses a resource.
+	 */
+	@Override
+	protected void doHead(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		doGetHead(request, response, true);
+	}
+
+	private void doGetHead(HttpServletRequest request, HttpServletResponse response, boolean isHead) throws ServletException, IOException {
 		ResourceConnection resourceConn = getResourceConn(request);
-		// TODO: checkIfHeaders
-		// Get content type
-		String contentType = ContentType.TEXT; // TODO: Get from resourceConnection, making sure it includes any charset
-		response.setContentType(contentType);
-		// TODO: eTag
-		// TODO: Support pre-compression?
-		// TODO: Ranges
-		// TODO: Support sendFile: https://tomcat.apache.org/tomcat-9.0-doc/aio.html
-		// TODO: Support getContent as byte[] on ResourceConnection?
-		// Length
 		long length = resourceConn.getLength();
-		if(length != -1) {
-			if(length < 0) throw new AssertionError();
-			if(length <= Integer.MAX_VALUE) {
-				response.setContentLength((int)length);
+		if(length < -1) throw new AssertionError();
+		long lastModified = resourceConn.getLastModified();
+		String etag = getETag(resourceConn, length, lastModified);
+		Metadata metadata = getMetadata(resourceConn, length, lastModified);
+		String contentType = metadata.contentType;
+		// TODO: Support getContent as byte[] on ResourceConnection?
+		// Select the content coding
+		String contentCoding = null;
+		ResourceConnection encodedConn = null;
+		FileChannel encodedChannel = null;
+		long gzipSize = -1;
+		try {
+			if(metadata.compressible) {
+				response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+				String acceptEncoding = request.getHeader(ACCEPT_ENCODING_HEADER);
+				if(acceptEncoding != null) {
+					for(String[] precompressed : PRECOMPRESSED_CODINGS) {
+						if(isAccepted(acceptEncoding, precompressed[0])) {
+							encodedConn = openPrecompressed(resourceConn, precompressed[1], lastModified);
+							if(encodedConn != null) {
+								contentCoding = precompressed[0];
+								break;
+							}
+						}
+					}
+					CompressedResourceCache cache = compressedCache;
+					if(
+						encodedConn == null
+						&& cache != null
+						&& length != -1
+						&& isAccepted(acceptEncoding, GZIP)
+					) {
+						if(isHead) {
+							gzipSize = cache.getGzipSize(resourceConn, length, lastModified);
+							if(gzipSize != -1) contentCoding = GZIP;
+						} else {
+							encodedChannel = cache.openGzip(resourceConn, length, lastModified);
+							if(encodedChannel != null) contentCoding = GZIP;
+						}
+					}
+				}
+			}
+			if(encodedConn != null) {
+				long encodedLength = encodedConn.getLength();
+				etag = getEncodedETag(getETag(encodedConn, encodedLength, encodedConn.getLastModified()), contentCoding);
+				length = encodedLength;
+				resourceConn = encodedConn;
+			} else if(encodedChannel != null) {
+				etag = getEncodedETag(etag, contentCoding);
+				length = encodedChannel.size();
+			} else if(gzipSize != -1) {
+				etag = getEncodedETag(etag, contentCoding);
+				length = gzipSize;
+			}
+			if(lastModified != 0) response.setDateHeader(LAST_MODIFIED_HEADER, lastModified);
+			if(etag != null) response.setHeader(ETags.ETAG_HEADER, etag);
+			if(!checkPreconditions(request, response, etag, lastModified)) return;
+			if(contentCoding != null) response.setHeader(CONTENT_ENCODING_HEADER, contentCoding);
+			long[][] ranges;
+			if(length == -1) {
+				ranges = null;
 			} else {
-				// TODO: Servlet 3.1: response.setContentLengthLong(length);
+				response.setHeader(ACCEPT_RANGES_HEADER, BYTES_UNIT);
+				ranges = isRangeApplicable(request, etag, lastModified) ? parseRanges(request.getHeader(RANGE_HEADER), length) : null;
+			}
+			// The cached compressed files may be deleted on eviction, so are not handed-off to sendfile
+			File file = (isHead || encodedChannel != null) ? null : getFile(resourceConn);
+			if(ranges == UNSATISFIABLE) {
+				response.setHeader(CONTENT_RANGE_HEADER, BYTES_UNIT + " */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			} else if(ranges == null) {
+				// Full resource
+				response.setContentType(contentType);
+				if(length == -1) {
+					if(!isHead) {
+						ServletOutputStream out = response.getOutputStream();
+						try (InputStream in = resourceConn.getInputStream()) {
+							IoUtils.copy(in, out);
+						}
+					}
+				} else {
+					setContentLength(response, length);
+					if(!isHead && length > 0 && !trySendfile(request, file, 0, length - 1)) {
+						if(tryAsyncTransfer(request, response, file, encodedChannel, 0, length - 1)) {
+							// Now closed by the transfer
+							encodedChannel = null;
+						} else {
+							copyRange(resourceConn, file, encodedChannel, response.getOutputStream(), 0, length - 1);
+						}
+					}
+				}
+			} else if(ranges.length == 1) {
+				// Single range
+				long first = ranges[0][0];
+				long last = ranges[0][1];
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setContentType(contentType);
+				response.setHeader(CONTENT_RANGE_HEADER, getContentRange(first, last, length));
+				setContentLength(response, last - first + 1);
+				if(!isHead && !trySendfile(request, file, first, last)) {
+					if(tryAsyncTransfer(request, response, file, encodedChannel, first, last)) {
+						// Now closed by the transfer
+						encodedChannel = null;
+					} else {
+						copyRange(resourceConn, file, encodedChannel, response.getOutputStream(), first, last);
+					}
+				}
+			} else {
+				// Multiple ranges
+				String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+				// Build the part headers first to compute the total length
+				byte[][] partHeaders = new byte[ranges.length][];
+				long totalLength = 0;
+				for(int i = 0; i < ranges.length; i++) {
+					long first = ranges[i][0];
+					long last = ranges[i][1];
+					partHeaders[i] = (
+						CRLF + "--" + boundary + CRLF
+						+ "Content-Type: " + contentType + CRLF
+						+ CONTENT_RANGE_HEADER + ": " + getContentRange(first, last, length) + CRLF
+						+ CRLF
+					).getBytes(StandardCharsets.US_ASCII);
+					totalLength += partHeaders[i].length + (last - first + 1);
+				}
+				byte[] end = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+				totalLength += end.length;
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setContentType("multipart/byteranges; boundary=" + boundary);
+				setContentLength(response, totalLength);
+				if(!isHead) {
+					ServletOutputStream out = response.getOutputStream();
+					for(int i = 0; i < ranges.length; i++) {
+						out.write(partHeaders[i]);
+						copyRange(resourceConn, file, encodedChannel, out, ranges[i][0], ranges[i][1]);
+					}
+					out.write(end);
+				}
+			}
+		} finally {
+			try {
+				if(encodedChannel != null) encodedChannel.close();
+			} finally {
+				if(encodedConn != null) encodedConn.close();
 			}
-		}
-		ServletOutputStream out = response.getOutputStream();
-		try (InputStream in = resourceConn.getInputStream()) {
-			long copied = IoUtils.copy(in, out);
-			if(length != -1 && copied != length) throw new ServletException("Wrong number of bytes copied for " + resourceConn + ": length = " + length + ", copied = " + copied);
 		}
 	}
 }
@@ -35,8 +35,13 @@ import com.semanticcms.core.model.BookRef;
 import com.semanticcms.core.model.PageRef;
 import com.semanticcms.core.model.ParentRef;
 import com.semanticcms.core.renderer.Renderer;
+import com.semanticcms.core.resources.ResourceConnection;
+import com.semanticcms.core.resources.ResourceStore;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -46,6 +51,10 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -57,7 +66,6 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
-import org.apache.commons.lang3.NotImplementedException;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
@@ -68,6 +76,8 @@ import org.xml.sax.SAXException;
  */
 public class SemanticCMS {
 
+	private static final Logger logger = Logger.getLogger(SemanticCMS.class.getName());
+
 	// <editor-fold defaultstate="collapsed" desc="Singleton Instance (per application)">
 
 	@WebListener("Exposes the application context as an application-scope SemanticCMS instance named \"" + APPLICATION_ATTRIBUTE + "\".")
@@ -120,13 +130,27 @@ public class SemanticCMS {
 			&& Boolean.parseBoolean(servletContext.getInitParameter(CONCURRENT_SUBREQUESTS_INIT_PARAM))
 		;
 		this.rootBook = initBooks();
+		this.publishedBookIndex = new BookIndex(publishedBooks);
+		this.localBookIndex = initLocalBookIndex();
 		this.executors = new Executors();
+		this.pageSourceCache = initPageSourceCache();
+		this.sharedCache = initSharedCache();
+		this.exportCacheTtl = initExportCacheTtl();
+		this.exportCacheMaxSize = initExportCacheMaxSize();
+		this.exportCacheSecret = initExportCacheSecret();
+		this.resourceCache = initResourceCache();
+		this.renderCacheTtl = initRenderCacheTtl();
+		this.renderCache = initRenderCache();
+		this.backgroundVerifier = initBackgroundVerifier();
+		this.cacheStatsObjectName = registerCacheStats();
 	}
 
 	/**
 	 * Called when the context is shutting down.
 	 */
 	protected void destroy() {
+		if(backgroundVerifier != null) backgroundVerifier.stop();
+		unregisterCacheStats();
 	}
 	// </editor-fold>
 
@@ -166,6 +190,16 @@ public class SemanticCMS {
 
 	private final Book rootBook;
 
+	/**
+	 * Resolves published books by servlet path.
+	 */
+	private final BookIndex publishedBookIndex;
+
+	/**
+	 * Resolves local books by servlet path.
+	 */
+	private final BookIndex localBookIndex;
+
 	private Book initBooks() throws IOException, SAXException, ParserConfigurationException, XPathExpressionException, ValidationException {
 		Document booksXml;
 		{
@@ -282,16 +316,11 @@ public class SemanticCMS {
 			} else {
 				resourceDirectories = Collections.singleton(cvsworkDirectory);
 			}
-			ServletBook book = new ServletBook(
-				servletContext,
+			Book book = newBook(
 				bookRef,
 				resourceDirectories,
 				Boolean.valueOf(bookElem.getAttribute("allowRobots")),
-				parentRefs,
-				PropertiesUtils.loadFromResource(
-					servletContext,
-					bookRef.getPrefix() + "/book.properties"
-				)
+				parentRefs
 			);
 			if(books.put(bookRef, book) != null) {
 				throw new IllegalStateException(BOOKS_XML_RESOURCE+ ": Duplicate value for \"" + BOOK_TAG + "\": " + bookRef);
@@ -311,6 +340,34 @@ public class SemanticCMS {
 		return newRootBook;
 	}
 
+	/**
+	 * Creates the book for each <code>book</code> element of <code>/WEB-INF/books.xml</code>.
+	 * By default, creates a {@link ServletBook} configured by the <code>book.properties</code>
+	 * resource within the book.
+	 * <p>
+	 * This is called during construction, so implementations must not depend on any
+	 * state of the subclass.
+	 * </p>
+	 */
+	protected Book newBook(
+		BookRef bookRef,
+		Collection<String> resourceDirectories,
+		boolean allowRobots,
+		Set<ParentRef> parentRefs
+	) throws ValidationException, IOException {
+		return new ServletBook(
+			servletContext,
+			bookRef,
+			resourceDirectories,
+			allowRobots,
+			parentRefs,
+			PropertiesUtils.loadFromResource(
+				servletContext,
+				bookRef.getPrefix() + "/book.properties"
+			)
+		);
+	}
+
 	/**
 	 * Gets the mapping of all configured books, including those that are not
 	 * {@link #getPublishedBooks() published} and/or {@link Book#isAccessible() inaccessible}.
@@ -385,23 +442,7 @@ public class SemanticCMS {
 	 * @see  #getPublishedBook(javax.servlet.http.HttpServletRequest)
 	 */
 	public Book getPublishedBook(String servletPath) {
-		try {
-			int len = servletPath.length();
-			// Quick path for initial trailing slash: avoid map lookup that will never match
-			if(servletPath.charAt(len - 1) == '/') len -= 1;
-			while(len > 0) {
-				servletPath = servletPath.substring(0, len);
-				assert servletPath.charAt(len - 1) != '/' : "Should not end in slash: " + servletPath;
-				Book book = publishedBooks.get(Path.valueOf(servletPath));
-				if(book != null) return book;
-				int lastSlash = servletPath.lastIndexOf('/');
-				assert lastSlash != -1 : "Starts with slash, so should always find one when len > 0";
-				len = lastSlash;
-			}
-			return publishedBooks.get(Path.ROOT);
-		} catch(ValidationException e) {
-			throw new WrappedException(e);
-		}
+		return publishedBookIndex.getBook(servletPath);
 	}
 
 	/**
@@ -418,10 +459,71 @@ public class SemanticCMS {
 		return getPublishedBook(Dispatcher.getCurrentPagePath(request));
 	}
 
+	/**
+	 * Builds the index of local books: those {@link Book#isAccessible() accessible}, whether
+	 * {@link #getPublishedBooks() published} or not.
+	 * <p>
+	 * Accessibility is used in place of {@link Book#isLocal()}, which is not yet implemented by any book.
+	 * An accessible book is able to capture its pages within this application, which is all that
+	 * the servlet paths of local books are resolved for.
+	 * </p>
+	 * <p>
+	 * When more than one local book has the same path in different domains, the book published at
+	 * that path is used.  When none is published at that path, the path is ambiguous: a warning is
+	 * logged and no local book is found for the path, or any path within it.
+	 * </p>
+	 */
+	private BookIndex initLocalBookIndex() {
+		Map<Path, Book> localBooks = new LinkedHashMap<>();
+		for(Book book : books.values()) {
+			if(book.isAccessible()) {
+				Path path = book.getBookRef().getPath();
+				Book publishedBook = publishedBooks.get(path);
+				if(publishedBook != null && publishedBook.isAccessible()) {
+					// Accessible published book at this path always used
+					localBooks.put(path, publishedBook);
+				} else if(localBooks.containsKey(path)) {
+					Book existing = localBooks.put(path, null);
+					if(existing != null) {
+						logger.log(
+							Level.WARNING,
+							BOOKS_XML_RESOURCE + ": Ambiguous local book path, publish one of the books to resolve: " + existing.getBookRef()
+						);
+					}
+					logger.log(
+						Level.WARNING,
+						BOOKS_XML_RESOURCE + ": Ambiguous local book path, publish one of the books to resolve: " + book.getBookRef()
+					);
+				} else {
+					localBooks.put(path, book);
+				}
+			}
+		}
+		return new BookIndex(localBooks);
+	}
+
+	/**
+	 * Gets the local book for the provided servlet path or <code>null</code> if no local book
+	 * contains the path.  A local book is {@link Book#isAccessible() accessible}, and its
+	 * content may be captured locally whether or not it is {@link #getPublishedBooks() published}.
+	 * <p>
+	 * Also returns <code>null</code> when the path is within more than one local book in different
+	 * domains, none of which is published at that path.
+	 * </p>
+	 *
+	 * @see  #getPublishedBook(java.lang.String)
+	 */
 	public Book getLocalBook(String servletPath) {
-		throw new NotImplementedException("TODO");
+		return localBookIndex.getBook(servletPath);
 	}
 
+	/**
+	 * Gets the local book for the provided request or <code>null</code> if no local book
+	 * contains the current request path.
+	 *
+	 * @see  Dispatcher#getCurrentPagePath(javax.servlet.http.HttpServletRequest)
+	 * @see  #getLocalBook(java.lang.String)
+	 */
 	public Book getLocalBook(HttpServletRequest request) {
 		return getLocalBook(Dispatcher.getCurrentPagePath(request));
 	}
@@ -479,6 +581,393 @@ public class SemanticCMS {
 	}
 	// </editor-fold>
 
+	// <editor-fold defaultstate="collapsed" desc="Page Source Cache">
+
+	/**
+	 * Initialization parameter for the number of milliseconds the last modified time
+	 * of a page source is trusted before the source is checked again.
+	 */
+	private static final String PAGE_SOURCE_REVALIDATE_INTERVAL_INIT_PARAM = SemanticCMS.class.getName() + ".pageSource.revalidateInterval";
+
+	/**
+	 * The default number of milliseconds the last modified time of a page source is trusted.
+	 */
+	private static final long DEFAULT_PAGE_SOURCE_REVALIDATE_INTERVAL = 1000; // one second
+
+	private final PageSourceCache pageSourceCache;
+
+	private PageSourceCache initPageSourceCache() {
+		String intervalStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(PAGE_SOURCE_REVALIDATE_INTERVAL_INIT_PARAM));
+		long interval = intervalStr == null ? DEFAULT_PAGE_SOURCE_REVALIDATE_INTERVAL : Long.parseLong(intervalStr);
+		if(interval < 0) throw new IllegalArgumentException(PAGE_SOURCE_REVALIDATE_INTERVAL_INIT_PARAM + " < 0: " + interval);
+		return new PageSourceCache(this, interval);
+	}
+
+	/**
+	 * Gets the last modified time of the source of the given page, checking the source
+	 * at most once per revalidation interval.
+	 *
+	 * @return  The last modified time or {@code 0} when unknown
+	 *
+	 * @see  #PAGE_SOURCE_REVALIDATE_INTERVAL_INIT_PARAM
+	 */
+	long getPageSourceLastModified(PageRef pageRef) {
+		return pageSourceCache.getLastModified(pageRef);
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Shared Cache">
+
+	/**
+	 * Initialization parameter, that when set to a positive integer, will enable
+	 * the application-scope {@link SharedCache} with the given maximum number
+	 * of captures.  This is off by default.
+	 */
+	private static final String SHARED_CACHE_MAX_SIZE_INIT_PARAM = SemanticCMS.class.getName() + ".sharedCache.maxSize";
+
+	/**
+	 * Initialization parameter for the number of milliseconds after which a capture in
+	 * the {@link SharedCache} is no longer considered valid.
+	 */
+	private static final String SHARED_CACHE_TTL_INIT_PARAM = SemanticCMS.class.getName() + ".sharedCache.ttl";
+
+	/**
+	 * The default number of milliseconds after which a capture in the {@link SharedCache} is no longer considered valid.
+	 */
+	private static final long DEFAULT_SHARED_CACHE_TTL = 60 * 1000; // one minute
+
+	private final SharedCache sharedCache;
+
+	private SharedCache initSharedCache() {
+		String maxSizeStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(SHARED_CACHE_MAX_SIZE_INIT_PARAM));
+		int maxSize = maxSizeStr == null ? 0 : Integer.parseInt(maxSizeStr);
+		if(maxSize <= 0) return null;
+		String ttlStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(SHARED_CACHE_TTL_INIT_PARAM));
+		return new SharedCache(
+			this,
+			maxSize,
+			ttlStr == null ? DEFAULT_SHARED_CACHE_TTL : Long.parseLong(ttlStr)
+		);
+	}
+
+	/**
+	 * Gets the application-scope cache of captured pages, shared between requests.
+	 *
+	 * @return  The shared cache or {@code null} when not enabled
+	 *
+	 * @see  #SHARED_CACHE_MAX_SIZE_INIT_PARAM
+	 */
+	public SharedCache getSharedCache() {
+		return sharedCache;
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Cache Statistics">
+
+	private final CacheStats cacheStats = new CacheStats();
+
+	/**
+	 * The name {@link #cacheStats} is registered with JMX, {@code null} when not registered.
+	 */
+	private final ObjectName cacheStatsObjectName;
+
+	private ObjectName registerCacheStats() {
+		String contextPath = servletContext.getContextPath();
+		try {
+			ObjectName objectName = new ObjectName(
+				"com.semanticcms.core.controller:type=CacheStats,context="
+					+ ObjectName.quote(contextPath.isEmpty() ? "/" : contextPath)
+			);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(cacheStats, objectName);
+			return objectName;
+		} catch(JMException | SecurityException e) {
+			logger.log(Level.WARNING, "Unable to register cache statistics with JMX: " + contextPath, e);
+			return null;
+		}
+	}
+
+	private void unregisterCacheStats() {
+		if(cacheStatsObjectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(cacheStatsObjectName);
+			} catch(JMException | SecurityException e) {
+				logger.log(Level.WARNING, "Unable to unregister cache statistics from JMX: " + cacheStatsObjectName, e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the application-wide statistics of the capture caches.
+	 */
+	public CacheStats getCacheStats() {
+		return cacheStats;
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Verification">
+
+	/**
+	 * Initialization parameter that selects how page parent-child relationships are verified:
+	 * <ul>
+	 *   <li>{@link #VERIFICATION_INLINE} - Verified on the request thread, failing the request (default)</li>
+	 *   <li>{@link #VERIFICATION_BACKGROUND} - Verified by the {@link BackgroundVerifier}, logging any violations</li>
+	 * </ul>
+	 */
+	private static final String VERIFICATION_INIT_PARAM = SemanticCMS.class.getName() + ".verification";
+
+	/**
+	 * Verifies inline, failing fast.  This is recommended during development.
+	 */
+	private static final String VERIFICATION_INLINE = "inline";
+
+	/**
+	 * Verifies on a background thread, so page latency does not include verification.
+	 */
+	private static final String VERIFICATION_BACKGROUND = "background";
+
+	private final BackgroundVerifier backgroundVerifier;
+
+	private BackgroundVerifier initBackgroundVerifier() {
+		String verification = Strings.trimNullIfEmpty(servletContext.getInitParameter(VERIFICATION_INIT_PARAM));
+		if(verification == null || VERIFICATION_INLINE.equalsIgnoreCase(verification)) {
+			return null;
+		} else if(VERIFICATION_BACKGROUND.equalsIgnoreCase(verification)) {
+			return new BackgroundVerifier(this);
+		} else {
+			throw new IllegalArgumentException("Unexpected value for " + VERIFICATION_INIT_PARAM + ": " + verification);
+		}
+	}
+
+	/**
+	 * Gets the background verifier of page parent-child relationships.
+	 *
+	 * @return  The background verifier or {@code null} when verifying inline
+	 *
+	 * @see  #VERIFICATION_INIT_PARAM
+	 */
+	public BackgroundVerifier getBackgroundVerifier() {
+		return backgroundVerifier;
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Export Cache">
+
+	/**
+	 * Initialization parameter for the number of milliseconds after which the export cache,
+	 * shared by requests with the {@link Headers#EXPORTING_HEADER} header, is no longer considered valid.
+	 */
+	private static final String EXPORT_CACHE_TTL_INIT_PARAM = SemanticCMS.class.getName() + ".exportCache.ttl";
+
+	/**
+	 * The default number of milliseconds after which the export cache is no longer considered valid.
+	 */
+	static final long DEFAULT_EXPORT_CACHE_TTL = 60 * 1000; // one minute
+
+	/**
+	 * Initialization parameter for the maximum number of pages retained by the export cache.
+	 * Once exceeded, the least recently used pages are evicted, so a long crawl does not
+	 * retain an unbounded number of pages.
+	 */
+	private static final String EXPORT_CACHE_MAX_SIZE_INIT_PARAM = SemanticCMS.class.getName() + ".exportCache.maxSize";
+
+	/**
+	 * The default maximum number of pages retained by the export cache.
+	 */
+	static final int DEFAULT_EXPORT_CACHE_MAX_SIZE = 10000;
+
+	private final long exportCacheTtl;
+
+	private long initExportCacheTtl() {
+		String ttlStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(EXPORT_CACHE_TTL_INIT_PARAM));
+		if(ttlStr == null) return DEFAULT_EXPORT_CACHE_TTL;
+		long ttl = Long.parseLong(ttlStr);
+		if(ttl <= 0) throw new IllegalArgumentException(EXPORT_CACHE_TTL_INIT_PARAM + " <= 0: " + ttl);
+		return ttl;
+	}
+
+	/**
+	 * Gets the number of milliseconds after which the export cache is no longer considered valid.
+	 *
+	 * @see  #EXPORT_CACHE_TTL_INIT_PARAM
+	 */
+	long getExportCacheTtl() {
+		return exportCacheTtl;
+	}
+
+	private final int exportCacheMaxSize;
+
+	private int initExportCacheMaxSize() {
+		String maxSizeStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(EXPORT_CACHE_MAX_SIZE_INIT_PARAM));
+		if(maxSizeStr == null) return DEFAULT_EXPORT_CACHE_MAX_SIZE;
+		int maxSize = Integer.parseInt(maxSizeStr);
+		if(maxSize <= 0) throw new IllegalArgumentException(EXPORT_CACHE_MAX_SIZE_INIT_PARAM + " <= 0: " + maxSize);
+		return maxSize;
+	}
+
+	/**
+	 * Gets the maximum number of pages retained by the export cache.
+	 *
+	 * @see  #EXPORT_CACHE_MAX_SIZE_INIT_PARAM
+	 */
+	int getExportCacheMaxSize() {
+		return exportCacheMaxSize;
+	}
+
+	/**
+	 * Initialization parameter for the secret that exporting requests must send in the
+	 * {@link Headers#EXPORTING_SECRET_HEADER} header to use the export cache.  The export cache
+	 * is shared between requests, so it is only used by trusted requests.  When not set,
+	 * the export cache is not used.
+	 */
+	private static final String EXPORT_CACHE_SECRET_INIT_PARAM = SemanticCMS.class.getName() + ".exportCache.secret";
+
+	/**
+	 * The secret required to use the export cache, {@code null} when the export cache is not used.
+	 */
+	private final byte[] exportCacheSecret;
+
+	private byte[] initExportCacheSecret() {
+		String secret = Strings.trimNullIfEmpty(servletContext.getInitParameter(EXPORT_CACHE_SECRET_INIT_PARAM));
+		return secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks if an exporting request is trusted to use the export cache, by sending
+	 * the configured secret in the {@link Headers#EXPORTING_SECRET_HEADER} header.
+	 *
+	 * @see  #EXPORT_CACHE_SECRET_INIT_PARAM
+	 */
+	boolean isExportCacheTrusted(HttpServletRequest request) {
+		if(exportCacheSecret == null) return false;
+		String secret = request.getHeader(Headers.EXPORTING_SECRET_HEADER);
+		return
+			secret != null
+			// Constant-time comparison
+			&& MessageDigest.isEqual(exportCacheSecret, secret.getBytes(StandardCharsets.UTF_8))
+		;
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Resource Cache">
+
+	/**
+	 * Initialization parameter for the maximum total bytes of small resources held in memory.
+	 * A value of {@code 0} disables the cache.
+	 */
+	private static final String RESOURCE_CACHE_MAX_SIZE_INIT_PARAM = SemanticCMS.class.getName() + ".resourceCache.maxSize";
+
+	/**
+	 * The default maximum total bytes of small resources held in memory.
+	 */
+	private static final long DEFAULT_RESOURCE_CACHE_MAX_SIZE = 16L * 1024 * 1024;
+
+	/**
+	 * Initialization parameter for the number of milliseconds a cached resource is served
+	 * before checking the store for changes.
+	 */
+	private static final String RESOURCE_CACHE_REVALIDATE_INTERVAL_INIT_PARAM = SemanticCMS.class.getName() + ".resourceCache.revalidateInterval";
+
+	/**
+	 * The default number of milliseconds a cached resource is served before checking the store for changes.
+	 */
+	private static final long DEFAULT_RESOURCE_CACHE_REVALIDATE_INTERVAL = 1000; // one second
+
+	private final ResourceCache resourceCache;
+
+	private ResourceCache initResourceCache() {
+		String maxSizeStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(RESOURCE_CACHE_MAX_SIZE_INIT_PARAM));
+		long maxSize = maxSizeStr == null ? DEFAULT_RESOURCE_CACHE_MAX_SIZE : Long.parseLong(maxSizeStr);
+		if(maxSize <= 0) return null;
+		String intervalStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(RESOURCE_CACHE_REVALIDATE_INTERVAL_INIT_PARAM));
+		long interval = intervalStr == null ? DEFAULT_RESOURCE_CACHE_REVALIDATE_INTERVAL : Long.parseLong(intervalStr);
+		if(interval < 0) throw new IllegalArgumentException(RESOURCE_CACHE_REVALIDATE_INTERVAL_INIT_PARAM + " < 0: " + interval);
+		return new ResourceCache(maxSize, interval);
+	}
+
+	/**
+	 * Opens a resource, served from the in-memory cache of small resources when enabled.
+	 *
+	 * @see  #RESOURCE_CACHE_MAX_SIZE_INIT_PARAM
+	 */
+	ResourceConnection openResource(ResourceStore store, Path path) throws IOException {
+		if(resourceCache != null) {
+			return resourceCache.open(store, path);
+		} else {
+			return store.getResource(path).open();
+		}
+	}
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Render Cache">
+
+	/**
+	 * Initialization parameter, that when set to a positive integer, will enable the
+	 * {@link RenderCache} with the given maximum total bytes of rendered pages.
+	 * This is off by default.
+	 */
+	private static final String RENDER_CACHE_MAX_SIZE_INIT_PARAM = SemanticCMS.class.getName() + ".renderCache.maxSize";
+
+	/**
+	 * Initialization parameter for the number of milliseconds after which a rendered page
+	 * in the {@link RenderCache} is no longer considered valid.  This also limits how long
+	 * the entity tag of a rendered page remains valid, whether or not the cache is enabled.
+	 */
+	private static final String RENDER_CACHE_TTL_INIT_PARAM = SemanticCMS.class.getName() + ".renderCache.ttl";
+
+	/**
+	 * The default number of milliseconds after which a rendered page is no longer considered valid.
+	 */
+	private static final long DEFAULT_RENDER_CACHE_TTL = 60 * 1000; // one minute
+
+	/**
+	 * Initialization parameter for the number of milliseconds past its time-to-live, or after its
+	 * page has changed, that a rendered page in the {@link RenderCache} may still be served while
+	 * it is re-rendered.  This is {@code 0} by default, which always renders before responding.
+	 */
+	private static final String RENDER_CACHE_MAX_STALE_INIT_PARAM = SemanticCMS.class.getName() + ".renderCache.maxStale";
+
+	private final long renderCacheTtl;
+
+	private long initRenderCacheTtl() {
+		String ttlStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(RENDER_CACHE_TTL_INIT_PARAM));
+		long ttl = ttlStr == null ? DEFAULT_RENDER_CACHE_TTL : Long.parseLong(ttlStr);
+		if(ttl <= 0) throw new IllegalArgumentException(RENDER_CACHE_TTL_INIT_PARAM + " <= 0: " + ttl);
+		return ttl;
+	}
+
+	/**
+	 * Gets the number of milliseconds a rendered page, and its entity tag, remains valid.
+	 *
+	 * @see  #RENDER_CACHE_TTL_INIT_PARAM
+	 */
+	long getRenderCacheTtl() {
+		return renderCacheTtl;
+	}
+
+	private final RenderCache renderCache;
+
+	private RenderCache initRenderCache() {
+		String maxSizeStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(RENDER_CACHE_MAX_SIZE_INIT_PARAM));
+		long maxSize = maxSizeStr == null ? 0 : Long.parseLong(maxSizeStr);
+		if(maxSize <= 0) return null;
+		String maxStaleStr = Strings.trimNullIfEmpty(servletContext.getInitParameter(RENDER_CACHE_MAX_STALE_INIT_PARAM));
+		long maxStale = maxStaleStr == null ? 0 : Long.parseLong(maxStaleStr);
+		if(maxStale < 0) throw new IllegalArgumentException(RENDER_CACHE_MAX_STALE_INIT_PARAM + " < 0: " + maxStale);
+		return new RenderCache(maxSize, renderCacheTtl, maxStale);
+	}
+
+	/**
+	 * Gets the cache of rendered pages.
+	 *
+	 * @return  The render cache or {@code null} when not enabled
+	 *
+	 * @see  #RENDER_CACHE_MAX_SIZE_INIT_PARAM
+	 */
+	RenderCache getRenderCache() {
+		return renderCache;
+	}
+	// </editor-fold>
+
 	// <editor-fold defaultstate="collapsed" desc="Renderers">
 
 	private final SortedMap<String, Renderer> renderers = new TreeMap<>(
@@ -494,6 +983,26 @@ public class SemanticCMS {
 	);
 	private final SortedMap<String, Renderer> unmodifiableRenderers = Collections.unmodifiableSortedMap(renderers);
 
+	/**
+	 * The index of {@link #renderers}, replaced as each renderer is added.
+	 */
+	private volatile RendererIndex rendererIndex = RendererIndex.EMPTY;
+
+	/**
+	 * Incremented whenever a renderer is added.
+	 */
+	private volatile int routingVersion;
+
+	/**
+	 * Gets the current version of the request routing configuration, which changes
+	 * whenever a renderer is added.  Books are only loaded at start-up, so do not
+	 * change the version.  Any routing decisions cached under a previous version
+	 * must be discarded.
+	 */
+	int getRoutingVersion() {
+		return routingVersion;
+	}
+
 	/**
 	 * Gets the mapping of all configured renderers, key is suffix, value is renderer.
 	 * A renderer may exist under multiple suffixes, but only one unique renderer may be
@@ -527,27 +1036,16 @@ public class SemanticCMS {
 	 */
 	public Tuple2<Renderer, Path> getRendererAndPath(Path path) throws ServletException {
 		final String pathStr = path.toString();
-		String suffix = null;
-		Renderer renderer = null;
-		synchronized(renderers) {
-			for(Map.Entry<String, Renderer> entry : renderers.entrySet()) {
-				String s = entry.getKey();
-				if(pathStr.endsWith(s)) {
-					suffix = s;
-					renderer = entry.getValue();
-					break;
-				}
-			}
-		}
-		if(suffix != null) {
+		RendererIndex.Match match = rendererIndex.getMatch(pathStr);
+		if(match != null) {
 			// Remove suffix from path
-			int pathLen = pathStr.length() - suffix.length();
+			int pathLen = pathStr.length() - match.suffixLength;
 			// Remove any trailing /index, too
 			if(pathStr.regionMatches(pathLen - END_INDEX_LEN, END_INDEX, 0, END_INDEX_LEN)) {
 				pathLen -= END_INDEX.length() - 1;
 			}
 			return new Tuple2<>(
-				renderer,
+				match.renderer,
 				path.prefix(pathLen)
 			);
 		} else {
@@ -564,6 +1062,9 @@ public class SemanticCMS {
 		synchronized(renderers) {
 			if(renderers.containsKey(suffix)) throw new IllegalStateException("Renderer already registered: " + suffix);
 			if(renderers.put(suffix, renderer) != null) throw new AssertionError();
+			// Copy-on-write: lookups use the index without locking
+			rendererIndex = new RendererIndex(renderers);
+			routingVersion++; // Incremented while holding lock
 		}
 	}
 	// </editor-fold>
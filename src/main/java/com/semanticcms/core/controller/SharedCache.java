@@ -0,0 +1,380 @@
+/*
+ * semanticcms-core-controller - Serves SemanticCMS content from a Servlet environment.
+ * Copyright (C) 2021  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of semanticcms-core-controller.
+ *
+ * semanticcms-core-controller is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * semanticcms-core-controller is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with semanticcms-core-controller.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.semanticcms.core.controller;
+
+import com.semanticcms.core.model.ChildRef;
+import com.semanticcms.core.model.Page;
+import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.model.ParentRef;
+import com.semanticcms.core.pages.CaptureLevel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An application-scope cache of captured pages, shared between requests.
+ * The per-request {@link MapCache} falls back to this cache on a miss, and
+ * adds new captures to it.
+ * <p>
+ * Captures are indexed by page, so lookups do not lock and all captures of a
+ * page are removed at once.  The number of captures is bounded: when full,
+ * expired captures are removed, then other pages in no particular order, until
+ * a quarter of the capacity is available.  Entries are invalidated once older
+ * than the configured time-to-live, or when the last modified time of the page
+ * source, when known through {@link Book#getPageSource(com.semanticcms.core.model.PageRef)},
+ * no longer matches the time at capture.  The source is checked at most once per
+ * revalidation interval, through {@link SemanticCMS#getPageSourceLastModified(com.semanticcms.core.model.PageRef)}.
+ * </p>
+ * <p>
+ * When the source of a page has changed, the captures of its parents and children
+ * are also invalidated, both those before and after the change, since they may
+ * no longer agree with the page.
+ * </p>
+ * <p>
+ * TODO: Consider consequences of caching once we have a security model applied
+ * </p>
+ *
+ * @see  SemanticCMS#getSharedCache()
+ */
+public class SharedCache {
+
+	/**
+	 * The fraction of the maximum size made available when full.
+	 */
+	private static final int PRUNE_FRACTION = 4;
+
+	private static class Entry {
+
+		private final Cache.CaptureResult result;
+
+		/**
+		 * The time the page was captured, used for expiration.
+		 */
+		private final long captured;
+
+		/**
+		 * The last modified time of the page source when captured,
+		 * {@code 0} when unknown.
+		 */
+		private final long sourceLastModified;
+
+		private Entry(Cache.CaptureResult result, long captured, long sourceLastModified) {
+			this.result = result;
+			this.captured = captured;
+			this.sourceLastModified = sourceLastModified;
+		}
+	}
+
+	/**
+	 * The captures of one page.  Only PAGE and META levels are cached.
+	 * Modified only within {@link ConcurrentMap#compute(java.lang.Object, java.util.function.BiFunction)}
+	 * or {@link ConcurrentMap#computeIfPresent(java.lang.Object, java.util.function.BiFunction)}
+	 * for its page, and read without locking.
+	 */
+	private static class PageEntries {
+
+		private volatile Entry page;
+		private volatile Entry meta;
+
+		private Entry get(CaptureLevel level) {
+			if(level == CaptureLevel.PAGE) return page;
+			assert level == CaptureLevel.META : "Body captures are not cached";
+			return meta;
+		}
+
+		/**
+		 * @return  The previous entry
+		 */
+		private Entry set(CaptureLevel level, Entry entry) {
+			Entry old;
+			if(level == CaptureLevel.PAGE) {
+				old = page;
+				page = entry;
+			} else {
+				assert level == CaptureLevel.META : "Body captures are not cached";
+				old = meta;
+				meta = entry;
+			}
+			return old;
+		}
+
+		private int size() {
+			return (page == null ? 0 : 1) + (meta == null ? 0 : 1);
+		}
+	}
+
+	private final SemanticCMS semanticCMS;
+
+	private final int maxSize;
+
+	private final long ttl;
+
+	/**
+	 * The cached captures, by page.
+	 */
+	private final ConcurrentMap<PageRef, PageEntries> pages = new ConcurrentHashMap<>();
+
+	/**
+	 * The number of captures in {@link #pages}, updated along with the page.
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Set while {@link #pages} is being pruned, so only one thread prunes at a time.
+	 */
+	private final AtomicBoolean pruning = new AtomicBoolean();
+
+	/**
+	 * The pages found to have a changed source and not yet recaptured, whose new
+	 * parents and children are invalidated when recaptured.
+	 * Bounded by clearing when full.
+	 */
+	private final Set<PageRef> changed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The captures in progress, shared by all requests using this cache so that
+	 * concurrent captures of the same key are coalesced between requests.
+	 */
+	final CaptureFlights flights = new CaptureFlights();
+
+	/**
+	 * @param  maxSize  The maximum number of captures to retain
+	 * @param  ttl      The number of milliseconds after which a capture is no longer considered valid
+	 */
+	SharedCache(SemanticCMS semanticCMS, int maxSize, long ttl) {
+		if(maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+		if(ttl <= 0) throw new IllegalArgumentException("ttl <= 0: " + ttl);
+		this.semanticCMS = semanticCMS;
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Gets the maximum number of captures retained by this cache.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Gets the number of milliseconds after which a capture is no longer considered valid.
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Gets the current number of captures in this cache, including any that
+	 * are expired but not yet removed.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Removes all captures from this cache.
+	 */
+	public void clear() {
+		for(PageRef pageRef : pages.keySet()) {
+			remove(pageRef);
+		}
+		changed.clear();
+	}
+
+	/**
+	 * Removes all captures of the given page from this cache, at all levels.
+	 * This may be used to invalidate a page when its source is known to have
+	 * changed.
+	 */
+	public void invalidate(PageRef pageRef) {
+		remove(pageRef);
+		invalidateVerifier(pageRef);
+	}
+
+	/**
+	 * Forgets the relationships of the page in any {@link BackgroundVerifier}.
+	 */
+	private void invalidateVerifier(PageRef pageRef) {
+		BackgroundVerifier backgroundVerifier = semanticCMS.getBackgroundVerifier();
+		if(backgroundVerifier != null) backgroundVerifier.invalidate(pageRef);
+	}
+
+	/**
+	 * Removes all captures of the given page.
+	 *
+	 * @return  The removed captures or {@code null} when none
+	 */
+	private PageEntries remove(PageRef pageRef) {
+		PageEntries entries = pages.remove(pageRef);
+		// No longer modified once removed
+		if(entries != null) size.addAndGet(-entries.size());
+		return entries;
+	}
+
+	/**
+	 * Removes all captures of the parents and children of the given page.
+	 */
+	private void removeRelated(Page page) {
+		PageRef pageRef = page.getPageRef();
+		for(ParentRef parentRef : page.getParentRefs()) {
+			PageRef parentPageRef = parentRef.getPageRef();
+			if(!parentPageRef.equals(pageRef)) remove(parentPageRef);
+		}
+		for(ChildRef childRef : page.getChildRefs()) {
+			PageRef childPageRef = childRef.getPageRef();
+			if(!childPageRef.equals(pageRef)) remove(childPageRef);
+		}
+	}
+
+	private boolean isExpired(Entry entry, long currentTime) {
+		return
+			currentTime >= (entry.captured + ttl)
+			// Handle system time changes
+			|| currentTime <= (entry.captured - ttl)
+		;
+	}
+
+	/**
+	 * Removes a capture, only when not already replaced by a more recent capture.
+	 */
+	private void remove(Cache.CaptureKey key, Entry entry) {
+		pages.computeIfPresent(key.pageRef, (pageRef, entries) -> {
+			if(entries.get(key.level) == entry) {
+				entries.set(key.level, null);
+				size.decrementAndGet();
+			}
+			return entries.size() == 0 ? null : entries;
+		});
+	}
+
+	private Cache.CaptureResult getValid(Cache.CaptureKey key) {
+		PageEntries entries = pages.get(key.pageRef);
+		if(entries == null) return null;
+		Entry entry = entries.get(key.level);
+		if(entry == null) return null;
+		if(isExpired(entry, System.currentTimeMillis())) {
+			remove(key, entry);
+			return null;
+		}
+		// Unknown source relying on time-to-live only
+		if(
+			entry.sourceLastModified != 0
+			&& entry.sourceLastModified != semanticCMS.getPageSourceLastModified(key.pageRef)
+		) {
+			// Only remove when not already replaced by a more recent capture
+			PageEntries[] removed = new PageEntries[1];
+			pages.computeIfPresent(key.pageRef, (pageRef, current) -> {
+				if(current.get(key.level) != entry) return current;
+				removed[0] = current;
+				return null;
+			});
+			if(removed[0] != null) {
+				// No longer modified once removed
+				size.addAndGet(-removed[0].size());
+				Page page = entry.result.page;
+				if(page != null) removeRelated(page);
+				// Bounded by clearing when full
+				if(changed.size() >= maxSize) changed.clear();
+				changed.add(key.pageRef);
+			}
+			invalidateVerifier(key.pageRef);
+			return null;
+		}
+		return entry.result;
+	}
+
+	/**
+	 * A lookup of level PAGE will also perform a lookup of META if not found.
+	 *
+	 * @return  The cached result or {@code null} when not cached, expired, or the source has changed.
+	 */
+	Cache.CaptureResult get(Cache.CaptureKey key) {
+		Cache.CaptureResult result = getValid(key);
+		if(result == null && key.level == CaptureLevel.PAGE) {
+			// Look for meta in place of page
+			result = getValid(new Cache.CaptureKey(key.pageRef, CaptureLevel.META));
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the provided capture to this cache, replacing any existing capture.
+	 */
+	void put(Cache.CaptureKey key, Page page) {
+		Entry entry = new Entry(
+			Cache.CaptureResult.of(page),
+			System.currentTimeMillis(),
+			semanticCMS.getPageSourceLastModified(key.pageRef)
+		);
+		if(page != null && changed.remove(key.pageRef)) removeRelated(page);
+		pages.compute(key.pageRef, (pageRef, entries) -> {
+			if(entries == null) entries = new PageEntries();
+			if(entries.set(key.level, entry) == null) size.incrementAndGet();
+			return entries;
+		});
+		if(size.get() > maxSize) prune();
+	}
+
+	/**
+	 * Removes expired captures, then other pages in no particular order, until
+	 * {@link #PRUNE_FRACTION} of the maximum size is available.  Other threads
+	 * continue to use the cache while one thread prunes.
+	 */
+	private void prune() {
+		if(pruning.compareAndSet(false, true)) {
+			try {
+				long currentTime = System.currentTimeMillis();
+				for(PageRef pageRef : pages.keySet()) {
+					pages.computeIfPresent(pageRef, (key, entries) -> {
+						Entry page = entries.page;
+						if(page != null && isExpired(page, currentTime)) {
+							entries.page = null;
+							size.decrementAndGet();
+						}
+						Entry meta = entries.meta;
+						if(meta != null && isExpired(meta, currentTime)) {
+							entries.meta = null;
+							size.decrementAndGet();
+						}
+						return entries.size() == 0 ? null : entries;
+					});
+				}
+				int targetSize = maxSize - maxSize / PRUNE_FRACTION;
+				CacheStats cacheStats = semanticCMS.getCacheStats();
+				Iterator<PageRef> iter = pages.keySet().iterator();
+				while(size.get() > targetSize && iter.hasNext()) {
+					PageEntries evicted = remove(iter.next());
+					if(evicted != null) {
+						if(evicted.page != null) cacheStats.getLevelStats(CaptureLevel.PAGE).evictions.increment();
+						if(evicted.meta != null) cacheStats.getLevelStats(CaptureLevel.META).evictions.increment();
+					}
+				}
+			} finally {
+				pruning.set(false);
+			}
+		}
+	}
+}
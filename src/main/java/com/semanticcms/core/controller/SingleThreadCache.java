@@ -26,6 +26,7 @@ import com.aoindustries.collections.AoCollections;
 import static com.semanticcms.core.controller.Cache.VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS;
 import com.semanticcms.core.model.Page;
 import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.pages.CaptureLevel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -40,10 +41,13 @@ class SingleThreadCache extends MapCache {
 	private final Thread assertingThread;
 
 	@SuppressWarnings("AssertWithSideEffects")
-	SingleThreadCache(SemanticCMS semanticCMS) {
+	SingleThreadCache(SemanticCMS semanticCMS, SharedCache sharedCache) {
 		super(
 			semanticCMS,
-			new HashMap<CaptureKey, CaptureResult>(),
+			sharedCache,
+			// Only coalesce with other requests, since there is no concurrency within this request
+			sharedCache == null ? null : sharedCache.flights,
+			new HashMap<PageRef, LevelCaptures>(),
 			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new HashMap<PageRef, Set<PageRef>>() : null,
 			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new HashMap<PageRef, Set<PageRef>>() : null,
 			new HashMap<String, Object>()
@@ -55,9 +59,9 @@ class SingleThreadCache extends MapCache {
 	}
 
 	@Override
-	CaptureResult get(CaptureKey key) {
+	CaptureResult get(PageRef pageRef, CaptureLevel level) throws ServletException {
 		assert assertingThread == Thread.currentThread();
-		return super.get(key);
+		return super.get(pageRef, level);
 	}
 
 	@Override
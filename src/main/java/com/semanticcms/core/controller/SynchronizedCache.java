@@ -26,6 +26,7 @@ import com.aoindustries.collections.AoCollections;
 import static com.semanticcms.core.controller.Cache.VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS;
 import com.semanticcms.core.model.Page;
 import com.semanticcms.core.model.PageRef;
+import com.semanticcms.core.pages.CaptureLevel;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -37,10 +38,24 @@ import javax.servlet.ServletException;
  */
 class SynchronizedCache extends MapCache {
 
-	SynchronizedCache(SemanticCMS semanticCMS) {
+	SynchronizedCache(SemanticCMS semanticCMS, SharedCache sharedCache) {
+		this(semanticCMS, sharedCache, new HashMap<PageRef, LevelCaptures>());
+	}
+
+	/**
+	 * Creates a cache that retains the captures of at most the given number of pages,
+	 * evicting the least recently used.
+	 */
+	SynchronizedCache(SemanticCMS semanticCMS, int maxSize) {
+		this(semanticCMS, null, newLruPageCache(semanticCMS, maxSize));
+	}
+
+	private SynchronizedCache(SemanticCMS semanticCMS, SharedCache sharedCache, Map<PageRef, LevelCaptures> pageCache) {
 		super(
 			semanticCMS,
-			new HashMap<CaptureKey, CaptureResult>(),
+			sharedCache,
+			getFlights(sharedCache),
+			pageCache,
 			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new HashMap<PageRef, Set<PageRef>>() : null,
 			VERIFY_CACHE_PARENT_CHILD_RELATIONSHIPS ? new HashMap<PageRef, Set<PageRef>>() : null,
 			new HashMap<String, Object>()
@@ -48,8 +63,8 @@ class SynchronizedCache extends MapCache {
 	}
 
 	@Override
-	synchronized CaptureResult get(CaptureKey key) {
-		return super.get(key);
+	synchronized CaptureResult get(PageRef pageRef, CaptureLevel level) throws ServletException {
+		return super.get(pageRef, level);
 	}
 
 	@Override